@@ -0,0 +1,280 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A small benchmark harness of our own, laid out like JMH but
+ * needing nothing outside the JDK.
+ * <P>
+ * Each case is run for a warm-up period, then timed over several
+ * fixed-length iterations.  The result is the mean number of
+ * operations a second with three standard deviations of the
+ * iteration scores, the bytes handled a second, and the bytes
+ * allocated by each operation, read from the thread's allocation
+ * counter.
+ * <P>
+ * The spread is only there to show how steady a case was.  It is
+ * not a confidence interval like the error JMH prints, and since
+ * everything runs in one JVM without JMH's forks or blackholes, the
+ * numbers are for comparing two builds on the same machine, not for
+ * setting beside JMH results.
+ */
+public class Bench{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new harness.
+	 *
+	 * @param warmupMillis How long to run each case before timing it.
+	 * @param measureMillis How long each timed iteration lasts.
+	 * @param iterations The number of timed iterations.
+	 * @param filter Only cases whose names this finds anything in
+	 * are run, or null to run them all.
+	 */
+	public Bench(long warmupMillis, long measureMillis, int iterations, String filter){
+		mWarmupNanos = warmupMillis * 1000000L;
+		mMeasureNanos = measureMillis * 1000000L;
+		mIterations = iterations;
+		mFilter = (filter == null) ? null : Pattern.compile(filter);
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Runs a case, if the filter lets it, and prints its result.
+	 *
+	 * @param c The case to run.
+	 * @return The result, or null if the case was filtered out.
+	 * @throws Exception If the case failed.
+	 */
+	public Result run(Case c) throws Exception{
+		if(mFilter != null && !mFilter.matcher(c.getName()).find())
+			return null;
+		if(mResults.isEmpty())
+			System.out.println(Result.HEADER);
+		
+		c.setUp();
+		try{
+			this.iterate(c, mWarmupNanos);
+			double[] scores = new double[mIterations];
+			long ops = 0, bytes = 0, allocated = 0, nanos = 0;
+			for(int i = 0; i < mIterations; i++){
+				long[] counts = this.iterate(c, mMeasureNanos);
+				scores[i] = counts[0] * 1e9 / counts[3];
+				ops += counts[0];
+				bytes += counts[1];
+				allocated += counts[2];
+				nanos += counts[3];
+			}
+			
+			double mean = 0;
+			for(double s : scores)
+				mean += s;
+			mean /= scores.length;
+			double variance = 0;
+			for(double s : scores)
+				variance += (s - mean) * (s - mean);
+			double spread = (scores.length > 1) ? 
+					3 * Math.sqrt(variance / (scores.length - 1)) : Double.NaN;
+			
+			Result result = new Result(c.getName(), mean, spread, 
+					bytes * 1e9 / nanos, (allocated < 0) ? -1 : (double) allocated / ops);
+			System.out.println(result);
+			mResults.add(result);
+			return result;
+		}finally{
+			c.tearDown();
+		}
+	}
+	
+	/**
+	 * Runs a case over and over for a while.
+	 *
+	 * @return The operations done, the bytes they handled, the bytes
+	 * allocated (negative if this JVM can't tell) and the nanoseconds
+	 * it took.
+	 */
+	private long[] iterate(Case c, long nanos) throws Exception{
+		long ops = 0, bytes = 0;
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		do{
+			bytes += c.run();
+			ops++;
+			elapsed = System.nanoTime() - start;
+		}while(elapsed < nanos);
+		long after = allocatedBytes();
+		sSink += bytes;
+		return new long[]{ops, bytes, (allocated < 0) ? -1 : after - allocated, elapsed};
+	}
+	
+	/**
+	 * Gets the bytes this thread has allocated so far.
+	 *
+	 * @return The count, or -1 if this JVM can't tell.
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+		if(!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Gets the results of every case run so far.
+	 *
+	 * @return The results, in the order the cases were run.
+	 */
+	public List<Result> getResults(){
+		return mResults;
+	}
+	
+	/**
+	 * Something to benchmark.
+	 */
+	public static abstract class Case{
+		
+		/**
+		 * Creates a new case.
+		 *
+		 * @param name The name it is reported under.
+		 */
+		public Case(String name){
+			mName = name;
+		}
+		
+		/**
+		 * Gets ready to run, before any timing starts.
+		 *
+		 * @throws Exception If it couldn't.
+		 */
+		public void setUp() throws Exception{
+		}
+		
+		/**
+		 * Does one operation.
+		 *
+		 * @return The number of bytes of data it handled.
+		 * @throws Exception If it failed.
+		 */
+		public abstract long run() throws Exception;
+		
+		/**
+		 * Lets go of anything setUp made.
+		 */
+		public void tearDown(){
+		}
+		
+		public String getName(){
+			return mName;
+		}
+		
+		private String mName;
+	}
+	
+	/**
+	 * The result of one case.
+	 */
+	public static class Result{
+		
+		public Result(String name, double score, double spread, double bytesPerSecond, 
+				double allocatedPerOp){
+			mName = name;
+			mScore = score;
+			mSpread = spread;
+			mBytesPerSecond = bytesPerSecond;
+			mAllocatedPerOp = allocatedPerOp;
+		}
+		
+		public String getName(){
+			return mName;
+		}
+		
+		/**
+		 * Gets the mean number of operations a second.
+		 */
+		public double getScore(){
+			return mScore;
+		}
+		
+		/**
+		 * Gets three standard deviations of the iteration scores,
+		 * or NaN if there was only one iteration.
+		 */
+		public double getSpread(){
+			return mSpread;
+		}
+		
+		public double getBytesPerSecond(){
+			return mBytesPerSecond;
+		}
+		
+		/**
+		 * Gets the bytes allocated by each operation, or -1 if this
+		 * JVM can't tell.
+		 */
+		public double getAllocatedPerOp(){
+			return mAllocatedPerOp;
+		}
+		
+		/**
+		 * Gives the result as a line of the table Bench prints.
+		 *
+		 * @return A line lined up under HEADER.
+		 */
+		public String toString(){
+			return String.format("%-44s %14.3f %12.3f %10.2f %14.1f", 
+					mName, mScore, mSpread, mBytesPerSecond / (1024 * 1024), mAllocatedPerOp);
+		}
+		
+		public static final String HEADER = String.format("%-44s %14s %12s %10s %14s",
+				"Benchmark", "ops/s", "3 stddev", "MB/s", "alloc B/op");
+		
+		private String mName;
+		private double mScore, mSpread, mBytesPerSecond, mAllocatedPerOp;
+	}
+	
+	
+	//VARIABLES
+	
+	private long mWarmupNanos, mMeasureNanos;
+	private int mIterations;
+	private Pattern mFilter;
+	private List<Result> mResults = new ArrayList<Result>();
+	
+	/**
+	 * Where results go so the JIT can't drop the work behind them.
+	 */
+	static volatile long sSink;
+}
+//end of class.
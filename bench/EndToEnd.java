@@ -0,0 +1,499 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import invisibleinktoolkit.util.PngRowWriter;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Runs whole encode and decode round trips through FireSteg on a
+ * corpus of covers and payloads made up on the spot, and writes
+ * how long each phase took as JSON, so two builds can be compared.
+ * <P>
+ * The corpus is the same every time.  Covers are random noise as
+ * INT_RGB, 3BYTE_BGR, 4BYTE_ABGR or indexed images, each of the
+ * sizes asked for.  Payloads take up half of what the cover can
+ * hold at one bit a layer, and are random bytes, text that would
+ * compress well, or many files of a kilobyte each.
+ * <P>
+ * Every phase runs FireSteg in a JVM of its own, since main keeps
+ * its state in static fields and ends with System.exit.  For each
+ * phase the report gives the wall time including JVM startup, the
+ * time inside FireSteg, the MB a second of payload and the peak heap
+ * (the sum of each heap pool's peak, so at most a little high).  The
+ * files read back are checked against the ones hidden, byte for byte.
+ * <P>
+ * Usage, once built as in Microbenchmarks:
+ * <PRE>
+ *   java -cp classes:bench-classes EndToEnd [--sizes 1,10,100] [--types rgb,...]
+ *       [--payloads random,...] [--classes dir] [--jvm-arg arg] [--arg arg]
+ *       [--dir dir] [--report file]
+ * </PRE>
+ * Sizes are in megapixels.  --classes runs another build of FireSteg
+ * against the same corpus; --jvm-arg and --arg pass an argument to
+ * each JVM or to FireSteg itself, and can be given more than once.
+ */
+public class EndToEnd{
+	
+	//FUNCTIONS
+	
+	public static void main(String[] args) throws Exception{
+		List<String> sizes = Arrays.asList("1", "10", "100");
+		List<String> types = Arrays.asList(COVER_TYPES);
+		List<String> payloads = Arrays.asList(PAYLOAD_KINDS);
+		List<String> jvmArgs = new ArrayList<String>();
+		List<String> fireArgs = new ArrayList<String>();
+		String classes = System.getProperty("java.class.path");
+		File dir = null;
+		String report = null;
+		
+		for(int i = 0; i < args.length; i++){
+			String arg = args[i];
+			if(i + 1 == args.length)
+				usage("Missing a value for " + arg);
+			String value = args[++i];
+			if(arg.equals("--sizes")) sizes = Arrays.asList(value.split(","));
+			else if(arg.equals("--types")) types = Arrays.asList(value.split(","));
+			else if(arg.equals("--payloads")) payloads = Arrays.asList(value.split(","));
+			else if(arg.equals("--classes")) classes = value;
+			else if(arg.equals("--jvm-arg")) jvmArgs.add(value);
+			else if(arg.equals("--arg")) fireArgs.add(value);
+			else if(arg.equals("--dir")) dir = new File(value);
+			else if(arg.equals("--report")) report = value;
+			else usage("Unknown option " + arg);
+		}
+		boolean keep = (dir != null);
+		if(dir == null){
+			dir = File.createTempFile("firesteg-e2e", "");
+			dir.delete();
+		}
+		dir.mkdirs();
+		
+		//this class has to be on the path too, to run the phases
+		String self = new File(EndToEnd.class.getProtectionDomain()
+				.getCodeSource().getLocation().toURI()).getPath();
+		String classpath = classes + File.pathSeparator + self;
+		
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"java\": ").append(quote(System.getProperty("java.version")));
+		json.append(",\n  \"classes\": ").append(quote(classes));
+		json.append(",\n  \"args\": ").append(quote(join(fireArgs)));
+		json.append(",\n  \"runs\": [");
+		boolean first = true;
+		boolean allOk = true;
+		
+		try{
+			for(String size : sizes){
+				long pixels = (long) (Double.parseDouble(size) * 1000000);
+				int width = (int) Math.ceil(Math.sqrt(pixels));
+				int height = (int) ((pixels + width - 1) / width);
+				
+				for(String type : types){
+					File cover = new File(dir, "cover-" + type + "-" + size + "mp.png");
+					if(!cover.isFile())
+						writeCover(cover, type, width, height);
+					
+					for(String payload : payloads){
+						File files = new File(dir, "payload-" + payload + "-" + size + "mp");
+						if(!files.isDirectory())
+							writePayload(files, payload, (long) width * height * 3 / 8 / 2);
+						
+						Run run = new Run(dir, cover, files, classpath, jvmArgs, fireArgs);
+						run.go();
+						allOk &= run.mStatus.equals("ok") || run.mStatus.equals("rejected");
+						System.err.println(type + " " + size + "MP " + payload + ": " + run.mStatus
+								+ ", encode " + run.mEncode.getProperty("wall_ms", "-") + "ms"
+								+ ", decode " + run.mDecode.getProperty("wall_ms", "-") + "ms");
+						
+						json.append(first ? "\n" : ",\n");
+						first = false;
+						json.append("    {\"cover\": ").append(quote(type));
+						json.append(", \"megapixels\": ").append(size);
+						json.append(", \"width\": ").append(width);
+						json.append(", \"height\": ").append(height);
+						json.append(", \"payload\": ").append(quote(payload));
+						json.append(", \"payload_bytes\": ").append(run.mPayloadBytes);
+						json.append(", \"files\": ").append(run.mFileCount);
+						json.append(", \"status\": ").append(quote(run.mStatus));
+						json.append(",\n     \"encode\": ").append(phaseJson(run.mEncode, run.mPayloadBytes));
+						json.append(",\n     \"decode\": ").append(phaseJson(run.mDecode, run.mPayloadBytes));
+						json.append("}");
+					}
+				}
+			}
+		}finally{
+			if(!keep)
+				delete(dir);
+		}
+		json.append("\n  ]\n}\n");
+		
+		if(report == null){
+			System.out.print(json);
+		}else{
+			PrintWriter out = new PrintWriter(report, "UTF-8");
+			out.print(json);
+			out.close();
+		}
+		System.exit(allOk ? 0 : 1);
+	}
+	
+	private static void usage(String message){
+		System.err.println(message);
+		System.err.println("Usage: EndToEnd [--sizes 1,10,100] [--types rgb,bgr,argb,indexed] "
+				+ "[--payloads random,text,tiny] [--classes dir] [--jvm-arg arg] [--arg arg] "
+				+ "[--dir dir] [--report file]");
+		System.exit(2);
+	}
+	
+	/**
+	 * Writes a cover of random noise, the same every time.  All but
+	 * indexed covers are written a band at a time, so even huge ones
+	 * take little memory to make.
+	 *
+	 * @param file Where to write it.
+	 * @param type One of COVER_TYPES.
+	 * @param width The width of the cover.
+	 * @param height The height of the cover.
+	 * @throws IOException If it could not be written.
+	 */
+	static void writeCover(File file, String type, int width, int height) throws IOException{
+		Random random = new Random(((long) width * 31 + height) * 31 + type.hashCode());
+		
+		if(type.equals("indexed")){
+			byte[] palette = new byte[256];
+			random.nextBytes(palette);
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+					new IndexColorModel(8, 256, palette, palette.clone(), palette.clone()));
+			random.nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+			ImageIO.write(image, "png", file);
+			return;
+		}
+		
+		int imageType;
+		if(type.equals("rgb")) imageType = BufferedImage.TYPE_INT_RGB;
+		else if(type.equals("bgr")) imageType = BufferedImage.TYPE_3BYTE_BGR;
+		else imageType = BufferedImage.TYPE_4BYTE_ABGR;
+		
+		int rows = Math.max(1, Math.min(height, (1 << 22) / width));
+		BufferedImage band = new BufferedImage(width, rows, imageType);
+		PngRowWriter writer = new PngRowWriter(file.getPath(), width, height, 
+				band.getColorModel().hasAlpha(), 1, null);
+		for(int top = 0; top < height; top += rows){
+			if(imageType == BufferedImage.TYPE_INT_RGB){
+				int[] data = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+				for(int i = 0; i < data.length; i++)
+					data[i] = random.nextInt();
+			}else{
+				random.nextBytes(((DataBufferByte) band.getRaster().getDataBuffer()).getData());
+			}
+			writer.writeRows(band, Math.min(rows, height - top));
+		}
+		writer.close();
+	}
+	
+	/**
+	 * Writes a payload, the same every time.
+	 *
+	 * @param dir The directory to put the files in.
+	 * @param kind One of PAYLOAD_KINDS.
+	 * @param bytes About how many bytes it should come to.
+	 * @throws IOException If it could not be written.
+	 */
+	static void writePayload(File dir, String kind, long bytes) throws IOException{
+		dir.mkdirs();
+		Random random = new Random(bytes * 31 + kind.hashCode());
+		if(kind.equals("tiny")){
+			long count = Math.max(1, Math.min(MAX_TINY_FILES, bytes / TINY_FILE_SIZE));
+			byte[] data = new byte[TINY_FILE_SIZE];
+			for(int i = 0; i < count; i++){
+				random.nextBytes(data);
+				writeFile(new File(dir, "tiny" + i + ".bin"), data, data.length);
+			}
+			return;
+		}
+		
+		OutputStream out = new FileOutputStream(new File(dir, kind + ".bin"));
+		try{
+			byte[] chunk = new byte[64 * 1024];
+			byte[] words = "the quick brown fox jumps over the lazy dog and hides in a picture "
+				.getBytes("US-ASCII");
+			for(long left = bytes; left > 0; left -= chunk.length){
+				if(kind.equals("random")){
+					random.nextBytes(chunk);
+				}else{
+					for(int i = 0; i < chunk.length; i++)
+						chunk[i] = words[(i + random.nextInt(4)) % words.length];
+				}
+				out.write(chunk, 0, (int) Math.min(left, chunk.length));
+			}
+		}finally{
+			out.close();
+		}
+	}
+	
+	private static void writeFile(File file, byte[] data, int len) throws IOException{
+		OutputStream out = new FileOutputStream(file);
+		try{
+			out.write(data, 0, len);
+		}finally{
+			out.close();
+		}
+	}
+	
+	/**
+	 * Whether two files hold the same bytes.
+	 */
+	static boolean sameContents(File a, File b) throws IOException{
+		if(!b.isFile() || a.length() != b.length())
+			return false;
+		InputStream inA = new FileInputStream(a), inB = new FileInputStream(b);
+		try{
+			byte[] bufA = new byte[64 * 1024], bufB = new byte[64 * 1024];
+			int n;
+			while((n = inA.read(bufA)) > 0){
+				int got = 0;
+				while(got < n){
+					int m = inB.read(bufB, got, n - got);
+					if(m < 0)
+						return false;
+					got += m;
+				}
+				for(int i = 0; i < n; i++){
+					if(bufA[i] != bufB[i])
+						return false;
+				}
+			}
+			return true;
+		}finally{
+			inA.close();
+			inB.close();
+		}
+	}
+	
+	private static String phaseJson(Properties phase, long payloadBytes){
+		StringBuilder json = new StringBuilder("{");
+		String[] keys = {"exit", "wall_ms", "jvm_ms", "peak_heap_bytes"};
+		for(String key : keys){
+			if(json.length() > 1)
+				json.append(", ");
+			json.append(quote(key)).append(": ").append(phase.getProperty(key, "null"));
+		}
+		String jvm = phase.getProperty("jvm_ms");
+		double seconds = (jvm == null) ? 0 : Double.parseDouble(jvm) / 1000;
+		json.append(", \"mb_per_s\": ").append((seconds <= 0) ? "null" : 
+			String.format("%.3f", payloadBytes / seconds / (1024 * 1024)));
+		return json.append("}").toString();
+	}
+	
+	private static String quote(String s){
+		StringBuilder out = new StringBuilder("\"");
+		for(char c : s.toCharArray()){
+			if(c == '"' || c == '\\') out.append('\\').append(c);
+			else if(c < 0x20) out.append(String.format("\\u%04x", (int) c));
+			else out.append(c);
+		}
+		return out.append('"').toString();
+	}
+	
+	private static String join(List<String> list){
+		StringBuilder out = new StringBuilder();
+		for(String s : list)
+			out.append(out.length() > 0 ? " " : "").append(s);
+		return out.toString();
+	}
+	
+	static void delete(File file){
+		File[] children = file.listFiles();
+		if(children != null){
+			for(File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+	
+	/**
+	 * One round trip: a payload hidden in a cover and read back out.
+	 */
+	private static class Run{
+		
+		public Run(File dir, File cover, File files, String classpath, 
+				List<String> jvmArgs, List<String> fireArgs){
+			mDir = new File(dir, "run");
+			mCover = cover;
+			mFiles = files.listFiles();
+			Arrays.sort(mFiles);
+			mClasspath = classpath;
+			mJvmArgs = jvmArgs;
+			mFireArgs = fireArgs;
+			mFileCount = mFiles.length;
+			for(File f : mFiles)
+				mPayloadBytes += f.length();
+		}
+		
+		public void go() throws Exception{
+			delete(mDir);
+			File enc = new File(mDir, "enc"), dec = new File(mDir, "dec");
+			enc.mkdirs();
+			dec.mkdirs();
+			
+			List<String> args = new ArrayList<String>(Arrays.asList("-e", "-p", PASSWORD));
+			for(File f : mFiles){
+				args.add("-f");
+				args.add(f.getPath());
+			}
+			args.addAll(Arrays.asList("-c", mCover.getPath(), "-o", enc.getPath()));
+			mEncode = this.phase("encode", args);
+			if(!mEncode.getProperty("exit").equals("0")){
+				//FireSteg turns down covers it can't hide in, like indexed ones
+				mStatus = mCover.getName().contains("indexed") ? "rejected" : "encode failed";
+				return;
+			}
+			
+			args = new ArrayList<String>(Arrays.asList("-p", PASSWORD, 
+					"-c", new File(enc, mCover.getName()).getPath(), "-o", dec.getPath()));
+			mDecode = this.phase("decode", args);
+			if(!mDecode.getProperty("exit").equals("0")){
+				mStatus = "decode failed";
+				return;
+			}
+			
+			mStatus = "ok";
+			for(File f : mFiles){
+				if(!sameContents(f, new File(dec, f.getName())))
+					mStatus = "mismatch";
+			}
+			delete(mDir);
+		}
+		
+		/**
+		 * Runs FireSteg in a JVM of its own.
+		 *
+		 * @return What Phase found, with the exit code and wall time.
+		 */
+		private Properties phase(String name, List<String> fireArgs) throws Exception{
+			File stats = new File(mDir, name + ".properties");
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+			command.addAll(mJvmArgs);
+			command.addAll(Arrays.asList("-cp", mClasspath, "EndToEnd$Phase", stats.getPath()));
+			command.addAll(fireArgs);
+			command.addAll(mFireArgs);
+			
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(new File(mDir, name + ".log"));
+			long start = System.nanoTime();
+			int exit = builder.start().waitFor();
+			long wall = System.nanoTime() - start;
+			
+			Properties props = new Properties();
+			if(stats.isFile()){
+				FileReader in = new FileReader(stats);
+				props.load(in);
+				in.close();
+			}
+			props.setProperty("exit", Integer.toString(exit));
+			props.setProperty("wall_ms", String.format("%.1f", wall / 1e6));
+			return props;
+		}
+		
+		private File mDir, mCover;
+		private File[] mFiles;
+		private String mClasspath;
+		private List<String> mJvmArgs, mFireArgs;
+		long mPayloadBytes;
+		int mFileCount;
+		String mStatus;
+		Properties mEncode = new Properties(), mDecode = new Properties();
+	}
+	
+	/**
+	 * Runs FireSteg in the JVM of a phase, and on the way out writes
+	 * how long it ran and the peak heap to a properties file.
+	 */
+	public static class Phase{
+		
+		public static void main(String[] args) throws Exception{
+			final File stats = new File(args[0]);
+			final long start = System.nanoTime();
+			Runtime.getRuntime().addShutdownHook(new Thread(){
+				public void run(){
+					long peak = 0;
+					for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+						if(pool.getType() == MemoryType.HEAP)
+							peak += pool.getPeakUsage().getUsed();
+					}
+					try{
+						PrintWriter out = new PrintWriter(stats, "UTF-8");
+						out.println("jvm_ms=" + String.format("%.1f", (System.nanoTime() - start) / 1e6));
+						out.println("peak_heap_bytes=" + peak);
+						out.close();
+					}catch(IOException e){
+						e.printStackTrace();
+					}
+				}
+			});
+			FireSteg.main(Arrays.copyOfRange(args, 1, args.length));
+		}
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The kinds of cover made: INT_RGB, 3BYTE_BGR, 4BYTE_ABGR and indexed.
+	 */
+	static final String[] COVER_TYPES = {"rgb", "bgr", "argb", "indexed"};
+	
+	/**
+	 * The kinds of payload made: random bytes, text that compresses
+	 * well, and many tiny files.
+	 */
+	static final String[] PAYLOAD_KINDS = {"random", "text", "tiny"};
+	
+	private static final int TINY_FILE_SIZE = 1024;
+	private static final int MAX_TINY_FILES = 2000;
+	
+	private static final String PASSWORD = "end to end";
+}
+//end of class.
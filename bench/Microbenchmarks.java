@@ -0,0 +1,311 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import invisibleinktoolkit.stego.BitReader;
+import invisibleinktoolkit.stego.BitWriter;
+import invisibleinktoolkit.stego.CoverImage;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import my.crypto.Cryptor;
+
+/**
+ * Benchmarks the hot paths of hiding and reading: the single bit
+ * operations on a cover, the bit streams FireSteg.encode and decode
+ * drive, and encryption.  Bit operations and streams are run on
+ * each kind of cover (8 bit RGB, 8 bit RGBA and 16 bit RGB, which
+ * takes the slow path through getRGB) at 1, 4 and 8 bits a layer.
+ * <P>
+ * Build and run it against the FireSteg classes:
+ * <PRE>
+ *   javac -d classes src/*.java
+ *   javac -d bench-classes -cp classes bench/*.java
+ *   java -cp classes:bench-classes Microbenchmarks [--quick] [regex]
+ * </PRE>
+ * Only the cases whose names the regex finds anything in are run.
+ */
+public class Microbenchmarks{
+	
+	//FUNCTIONS
+	
+	public static void main(String[] args) throws Exception{
+		boolean quick = false;
+		String filter = null;
+		for(String arg : args){
+			if(arg.equals("--quick"))
+				quick = true;
+			else
+				filter = arg;
+		}
+		Bench bench = quick ? new Bench(200, 200, 3, filter) : new Bench(2000, 1000, 5, filter);
+		
+		File dir = createTempDirectory();
+		try{
+			for(String type : COVER_TYPES){
+				String path = writeCover(dir, type, COVER_SIZE, COVER_SIZE);
+				for(int bits : BIT_DEPTHS){
+					bench.run(new PixelBitCase("setPixelBit", type, path, bits));
+					bench.run(new PixelBitCase("getPixelBit", type, path, bits));
+					bench.run(new PixelBitCase("matchPixelBit", type, path, bits));
+					bench.run(new StreamCase("encode", type, path, bits));
+					bench.run(new StreamCase("decode", type, path, bits));
+				}
+			}
+			for(int version : new int[]{Cryptor.LEGACY_VERSION, Cryptor.GCM_VERSION}){
+				for(int size : MESSAGE_SIZES){
+					bench.run(new CryptCase(true, version, size));
+					bench.run(new CryptCase(false, version, size));
+				}
+			}
+		}finally{
+			for(File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+	
+	/**
+	 * Makes a directory for the covers.
+	 */
+	private static File createTempDirectory() throws Exception{
+		File dir = File.createTempFile("firesteg-bench", "");
+		dir.delete();
+		if(!dir.mkdir())
+			throw new Exception("Could not make " + dir);
+		return dir;
+	}
+	
+	/**
+	 * Writes a cover of random noise, the same every time.
+	 *
+	 * @param dir Where to write it.
+	 * @param type One of COVER_TYPES.
+	 * @param width The width of the cover.
+	 * @param height The height of the cover.
+	 * @return The path to the cover.
+	 * @throws Exception If it could not be written.
+	 */
+	static String writeCover(File dir, String type, int width, int height) throws Exception{
+		BufferedImage image;
+		if(type.equals("rgb")){
+			image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		}else if(type.equals("argb")){
+			image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		}else{
+			ComponentColorModel model = new ComponentColorModel(
+					ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, 
+					Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+			WritableRaster raster = Raster.createInterleavedRaster(
+					DataBuffer.TYPE_USHORT, width, height, 3, null);
+			image = new BufferedImage(model, raster, false, null);
+		}
+		
+		Random random = new Random(width * 31 + type.hashCode());
+		WritableRaster raster = image.getRaster();
+		if(raster.getDataBuffer() instanceof DataBufferByte){
+			random.nextBytes(((DataBufferByte) raster.getDataBuffer()).getData());
+		}else{
+			int[] row = new int[width * raster.getNumBands()];
+			for(int y = 0; y < height; y++){
+				for(int i = 0; i < row.length; i++)
+					row[i] = random.nextInt(1 << 16);
+				raster.setPixels(0, y, width, 1, row);
+			}
+		}
+		
+		File file = new File(dir, type + "-" + width + "x" + height + ".png");
+		ImageIO.write(image, "png", file);
+		return file.getPath();
+	}
+	
+	/**
+	 * Sets, gets or matches every bit a cover can hold, one at a time.
+	 */
+	private static class PixelBitCase extends Bench.Case{
+		
+		public PixelBitCase(String op, String type, String path, int bits){
+			super(op + ":" + type + ":" + bits + "bit");
+			mOp = op;
+			mPath = path;
+			mBits = bits;
+		}
+		
+		public void setUp() throws Exception{
+			mCover = new CoverImage(mPath, false);
+			mRandom = new Random(1);
+		}
+		
+		public long run(){
+			int width = mCover.getWidth(), height = mCover.getHeight();
+			int sum = 0;
+			boolean bit = mRandom.nextBoolean();
+			for(int y = 0; y < height; y++){
+				for(int x = 0; x < width; x++){
+					for(int layer = 0; layer < 3; layer++){
+						for(int b = 0; b < mBits; b++){
+							if(mOp.equals("setPixelBit")){
+								mCover.setPixelBit(x, y, layer, b, bit);
+							}else if(mOp.equals("getPixelBit")){
+								sum += mCover.getPixelBit(x, y, layer, b);
+							}else{
+								mCover.matchPixelBit(x, y, layer, mBits, bit, (x & 1) == 0);
+							}
+							bit = !bit;
+						}
+					}
+				}
+			}
+			Bench.sSink += sum;
+			return (long) width * height * 3 * mBits / 8;
+		}
+		
+		public void tearDown(){
+			mCover = null;
+		}
+		
+		private String mOp, mPath;
+		private int mBits;
+		private CoverImage mCover;
+		private Random mRandom;
+	}
+	
+	/**
+	 * Fills a cover with a message, or reads it back, through the bit
+	 * streams as FireSteg.encode and decode do.
+	 */
+	private static class StreamCase extends Bench.Case{
+		
+		public StreamCase(String op, String type, String path, int bits){
+			super(op + ":" + type + ":" + bits + "bit");
+			mEncode = op.equals("encode");
+			mPath = path;
+			mBits = bits;
+		}
+		
+		public void setUp() throws Exception{
+			mCovers = Collections.singletonList(new CoverImage(mPath, false));
+			CoverImage cover = mCovers.get(0);
+			mMessage = new byte[(int) (cover.getPixelCount() * 3 * mBits / 8)];
+			new Random(2).nextBytes(mMessage);
+			if(!mEncode){
+				//something to read back
+				this.write();
+				mMessage = new byte[mMessage.length];
+			}
+		}
+		
+		public long run() throws Exception{
+			if(mEncode){
+				this.write();
+			}else{
+				BitReader reader = new BitReader(mCovers, null);
+				reader.startCover(0, mBits);
+				reader.readMsbFirst(mMessage, 0, mMessage.length);
+			}
+			return mMessage.length;
+		}
+		
+		private void write() throws Exception{
+			BitWriter writer = new BitWriter(mCovers, null);
+			writer.startCover(0, mBits);
+			writer.writeMsbFirst(mMessage, 0, mMessage.length);
+			writer.close();
+		}
+		
+		public void tearDown(){
+			mCovers = null;
+			mMessage = null;
+		}
+		
+		private boolean mEncode;
+		private String mPath;
+		private int mBits;
+		private List<CoverImage> mCovers;
+		private byte[] mMessage;
+	}
+	
+	/**
+	 * Encrypts or decrypts a message in one go.  The key is made once
+	 * and then cached, the same as when FireSteg hides several files.
+	 */
+	private static class CryptCase extends Bench.Case{
+		
+		public CryptCase(boolean encrypt, int version, int size){
+			super((encrypt ? "encrypt" : "decrypt") + ":v" + version + ":" + size + "B");
+			mEncrypt = encrypt;
+			mVersion = version;
+			mSize = size;
+		}
+		
+		public void setUp() throws Exception{
+			mData = new byte[mSize];
+			new Random(3).nextBytes(mData);
+			if(!mEncrypt)
+				mData = Cryptor.encrypt(mData, PASSWORD, mVersion);
+		}
+		
+		public long run() throws Exception{
+			if(mEncrypt)
+				Bench.sSink += Cryptor.encrypt(mData, PASSWORD, mVersion).length;
+			else
+				Bench.sSink += Cryptor.decrypt(mData, PASSWORD, mVersion).length;
+			return mSize;
+		}
+		
+		public void tearDown(){
+			mData = null;
+		}
+		
+		private boolean mEncrypt;
+		private int mVersion, mSize;
+		private byte[] mData;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The kinds of cover benchmarked.
+	 */
+	static final String[] COVER_TYPES = {"rgb", "argb", "rgb16"};
+	
+	private static final int[] BIT_DEPTHS = {1, 4, 8};
+	
+	private static final int[] MESSAGE_SIZES = {1024, 1024 * 1024};
+	
+	private static final int COVER_SIZE = 256;
+	
+	private static final String PASSWORD = "benchmark";
+}
+//end of class.
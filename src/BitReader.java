@@ -0,0 +1,299 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads whole values back out of a sequence of cover images.
+ * <P>
+ * Each pixel is read once, as a word holding all its hidden bits,
+ * and values are cut out of that word.  When a cover runs out the
+ * reader moves on to the next one and lets the listener skip its
+ * header.
+ * <P>
+ * Given a pool, the reader reads ahead a window at a time instead,
+ * splitting each window into bands of rows read by separate threads.
+ * Windows start small on each cover and grow as it is read.
+ * <P>
+ * A lazy cover is asked for more rows as the reader gets to them,
+ * so only as much of it is decoded as the hidden data takes up.
+ */
+public class BitReader extends CoverBitStream{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new reader over the given covers.  Nothing is
+	 * read until nextCover or startCover is called.
+	 *
+	 * @param covers The covers, in the order they were filled.
+	 * @param listener Told when the reader moves between covers.
+	 */
+	public BitReader(List<CoverImage> covers, CoverListener listener){
+		super(covers, listener);
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Reads some bits, least significant bit first.
+	 *
+	 * @param count The number of bits to read (0 - 64).
+	 * @return The bits, the first one read in the LSB.
+	 * @throws IOException If the covers run out.
+	 */
+	public long readBits(int count) throws IOException{
+		long value = 0;
+		int shift = 0;
+		while(shift < count){
+			if(this.getRemaining() == 0)
+				this.nextCover();
+			
+			if(mPool != null){
+				//serve the bits out of the window read ahead
+				if(mWindowPos == mWindowEnd)
+					this.readAhead();
+				int n = (int)Math.min(count - shift, mWindowEnd - mWindowPos);
+				value |= this.readWindow(n) << shift;
+				shift += n;
+				continue;
+			}
+			
+			if(!mLoaded){
+				if(mCursor.getY() >= mCover.getRowsLoaded())
+					mCover.loadRows(mCursor.getY() + 1);
+				mWord = mCover.getPixelBits(mCursor.getX(), mCursor.getY(), 
+						mCursor.getBitsPerLayer());
+				mLoaded = true;
+			}
+			
+			//take as much as this pixel has
+			int offset = mCursor.getPixelOffset();
+			int n = Math.min(count - shift, mCursor.getBitsPerLayer() * 3 - offset);
+			value |= (long)((mWord >>> offset) & ((1 << n) - 1)) << shift;
+			mCursor.advance(n);
+			shift += n;
+			
+			if(mCursor.getPixelOffset() == 0)
+				mLoaded = false;
+		}
+		return value;
+	}
+	
+	/**
+	 * Reads a byte, least significant bit first.
+	 *
+	 * @return The byte, from 0 - 255.
+	 * @throws IOException If the covers run out.
+	 */
+	public int readByte() throws IOException{
+		return (int)this.readBits(8);
+	}
+	
+	/**
+	 * Reads an int, least significant bit first.
+	 *
+	 * @return The int.
+	 * @throws IOException If the covers run out.
+	 */
+	public int readInt() throws IOException{
+		return (int)this.readBits(32);
+	}
+	
+	/**
+	 * Reads a long, least significant bit first.
+	 *
+	 * @return The long.
+	 * @throws IOException If the covers run out.
+	 */
+	public long readLong() throws IOException{
+		return this.readBits(64);
+	}
+	
+	/**
+	 * Reads a range of bytes, each least significant bit first.
+	 *
+	 * @param b Where to put the bytes.
+	 * @param off The first byte to fill.
+	 * @param len The number of bytes to read.
+	 * @throws IOException If the covers run out.
+	 */
+	public void read(byte[] b, int off, int len) throws IOException{
+		int end = off + len;
+		while(off < end){
+			//unpack up to eight bytes from one long
+			int n = Math.min(8, end - off);
+			long packed = this.readBits(n * 8);
+			for(int i = 0; i < n; i++){
+				b[off + i] = (byte)packed;
+				packed >>>= 8;
+			}
+			off += n;
+		}
+	}
+	
+	/**
+	 * Reads a range of bytes, each most significant bit first, the
+	 * way message bodies are hidden.
+	 *
+	 * @param b Where to put the bytes.
+	 * @param off The first byte to fill.
+	 * @param len The number of bytes to read.
+	 * @throws IOException If the covers run out.
+	 */
+	public void readMsbFirst(byte[] b, int off, int len) throws IOException{
+		int end = off + len;
+		while(off < end){
+			int n = Math.min(8, end - off);
+			long packed = this.readBits(n * 8);
+			for(int i = 0; i < n; i++){
+				b[off + i] = REVERSED[(int)packed & 0xff];
+				packed >>>= 8;
+			}
+			off += n;
+		}
+	}
+	
+	/**
+	 * Reads the next window of the cover, in bands.
+	 *
+	 * @throws IOException If one of the bands failed.
+	 */
+	private void readAhead() throws IOException{
+		this.release();
+		long first = mCursor.getPosition();
+		if(mWindowCover != mIndex){
+			mWindowCover = mIndex;
+			mWindowBits = RowBands.BAND_BITS;
+		}
+		long count = Math.min(mCursor.getRemaining(), mWindowBits);
+		mWindowBits = Math.min(mWindowBits * 2, WINDOW_BITS);
+		int size = (int)((count + 7) >>> 3);
+		if(mWindow == null || mWindow.length < size)
+			mWindow = new byte[size];
+		
+		//make sure the cover has every row the window touches
+		long last = (first + count - 1) / (3L * mCursor.getBitsPerLayer());
+		mCover.loadRows((int)(last / mCover.getWidth()) + 1);
+		
+		this.invoke(new RowBands(mCover, mCursor.getBitsPerLayer(), 
+				first, count, mWindow, 0, false));
+		mWindowFirst = first;
+		mWindowPos = first;
+		mWindowEnd = first + count;
+	}
+	
+	/**
+	 * Takes some bits out of the window, least significant bit first.
+	 *
+	 * @param count The number of bits (0 - 64).
+	 * @return The bits.
+	 */
+	private long readWindow(int count){
+		long value = 0;
+		int shift = 0;
+		while(shift < count){
+			long bit = mWindowPos - mWindowFirst;
+			int offset = (int)(bit & 0x7);
+			int n = Math.min(8 - offset, count - shift);
+			value |= (long)(((mWindow[(int)(bit >>> 3)] & 0xff) >>> offset) 
+					& ((1 << n) - 1)) << shift;
+			shift += n;
+			mWindowPos += n;
+		}
+		return value;
+	}
+	
+	/**
+	 * Gets the position in the current cover.
+	 *
+	 * @return The number of bits before the current position.
+	 */
+	public long getPosition(){
+		if(mWindowEnd > mWindowFirst)
+			return mWindowPos;
+		return mCursor.getPosition();
+	}
+	
+	/**
+	 * Gets the number of bits left in the current cover.
+	 *
+	 * @return The number of bits still available in this cover.
+	 */
+	public long getRemaining(){
+		return mCursor.getRemaining() + mCursor.getPosition() - this.getPosition();
+	}
+	
+	/**
+	 * Forgets the pixel that was loaded, and any window read ahead.
+	 */
+	protected void release(){
+		mLoaded = false;
+		if(mWindowEnd > mWindowFirst){
+			//the cursor was left at the start of the window
+			mCursor.seek(mWindowPos);
+			mWindowFirst = mWindowPos = mWindowEnd = 0;
+		}
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The hidden bits of the current pixel.
+	 */
+	private int mWord;
+	
+	/**
+	 * Whether mWord holds the current pixel.
+	 */
+	private boolean mLoaded;
+	
+	/**
+	 * Bits read ahead when there is a pool, packed least significant
+	 * bit first.
+	 */
+	private byte[] mWindow;
+	
+	/**
+	 * The cover positions of the first bit in the window, the next
+	 * bit to be served and the end of the window.
+	 */
+	private long mWindowFirst, mWindowPos, mWindowEnd;
+	
+	/**
+	 * The size of the next window, and the cover it is for.
+	 */
+	private long mWindowBits;
+	private int mWindowCover = -1;
+	
+	/**
+	 * The most bits read ahead at once.
+	 */
+	private static final long WINDOW_BITS = 1L << 26;
+}
+//end of class.
@@ -0,0 +1,284 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Hides whole values in a sequence of cover images.
+ * <P>
+ * Bits are gathered up into a word for the pixel they belong to, and
+ * the pixel is written once it is full, or when the writer moves away
+ * from it.  As soon as a cover is full the writer moves on to the next
+ * one, so that cover gets its header even if nothing else follows.
+ * <P>
+ * Covers are always filled from the top down, so a streamed cover
+ * is asked for each new band of rows as the writer gets to it.
+ */
+public class BitWriter extends CoverBitStream{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new writer over the given covers.  Nothing is
+	 * written until nextCover or startCover is called.
+	 *
+	 * @param covers The covers, in the order they are to be filled.
+	 * @param listener Told when the writer moves between covers.
+	 */
+	public BitWriter(List<CoverImage> covers, CoverListener listener){
+		super(covers, listener);
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Hides the lowest bits of a value, least significant bit first.
+	 *
+	 * @param value The value holding the bits.
+	 * @param count The number of bits to hide (0 - 64).
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void writeBits(long value, int count) throws IOException{
+		while(count > 0){
+			if(mCursor.getRemaining() == 0)
+				throw new EOFException("Ran out of room in the cover images.");
+			
+			int offset = mCursor.getPixelOffset();
+			if(mMask == 0){
+				mWordX = mCursor.getX();
+				mWordY = mCursor.getY();
+				mWordBits = mCursor.getBitsPerLayer();
+				if(mWordY >= mCover.getRowsLoaded())
+					mCover.loadRows(mWordY + 1);
+			}
+			
+			//put as much as will fit into this pixel
+			int n = Math.min(count, mWordBits * 3 - offset);
+			int bits = (1 << n) - 1;
+			mWord |= ((int)value & bits) << offset;
+			mMask |= bits << offset;
+			mCursor.advance(n);
+			value >>>= n;
+			count -= n;
+			
+			if(mCursor.getPixelOffset() == 0)
+				this.release();
+			
+			//a full cover means moving straight on to the next one
+			if(mCursor.getRemaining() == 0 && !mInHeader && this.hasNextCover())
+				this.nextCover();
+		}
+	}
+	
+	/**
+	 * Hides a byte, least significant bit first.
+	 *
+	 * @param n The byte to hide.
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void writeByte(int n) throws IOException{
+		this.writeBits(n & 0xff, 8);
+	}
+	
+	/**
+	 * Hides an int, least significant bit first.
+	 *
+	 * @param n The int to hide.
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void writeInt(int n) throws IOException{
+		this.writeBits(n & 0xffffffffL, 32);
+	}
+	
+	/**
+	 * Hides a long, least significant bit first.
+	 *
+	 * @param n The long to hide.
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void writeLong(long n) throws IOException{
+		this.writeBits(n, 64);
+	}
+	
+	/**
+	 * Hides a range of bytes, each least significant bit first.
+	 *
+	 * @param b The bytes to hide.
+	 * @param off The first byte to hide.
+	 * @param len The number of bytes to hide.
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException{
+		int end = off + len;
+		while(off < end){
+			//pack up to eight bytes into one long
+			int n = Math.min(8, end - off);
+			long packed = 0;
+			for(int i = n - 1; i >= 0; i--)
+				packed = (packed << 8) | (b[off + i] & 0xff);
+			this.writeBits(packed, n * 8);
+			off += n;
+		}
+	}
+	
+	/**
+	 * Hides a range of bytes, each most significant bit first, the
+	 * way message bodies are hidden.
+	 *
+	 * @param b The bytes to hide.
+	 * @param off The first byte to hide.
+	 * @param len The number of bytes to hide.
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void writeMsbFirst(byte[] b, int off, int len) throws IOException{
+		int end = off + len;
+		while(off < end){
+			int n = Math.min(8, end - off);
+			long packed = 0;
+			for(int i = n - 1; i >= 0; i--)
+				packed = (packed << 8) | (REVERSED[b[off + i] & 0xff] & 0xff);
+			this.writeBits(packed, n * 8);
+			off += n;
+		}
+	}
+	
+	/**
+	 * Hides a run of bits taken from a byte array, where the bits of
+	 * each byte are counted from the least significant one up.
+	 *
+	 * @param b The bytes holding the bits.
+	 * @param first The index of the first bit to hide.
+	 * @param count The number of bits to hide.
+	 * @throws IOException If the covers run out of room.
+	 */
+	public void writeBits(byte[] b, long first, long count) throws IOException{
+		//a long run that fits in this cover can be done in bands,
+		//as far down as the rows the cover holds go each time
+		if(mPool != null && count > RowBands.BAND_BITS 
+				&& count <= mCursor.getRemaining()){
+			this.release();
+			long rowbits = (long)mCover.getWidth() * 3 * mCursor.getBitsPerLayer();
+			while(count > RowBands.BAND_BITS){
+				if(mCursor.getY() >= mCover.getRowsLoaded())
+					mCover.loadRows(mCursor.getY() + 1);
+				long position = mCursor.getPosition();
+				long n = Math.min(count, mCover.getRowsLoaded() * rowbits - position);
+				this.invoke(new RowBands(mCover, mCursor.getBitsPerLayer(), 
+						position, n, b, first, true));
+				mCursor.seek(position + n);
+				first += n;
+				count -= n;
+			}
+			if(count == 0){
+				if(mCursor.getRemaining() == 0 && !mInHeader && this.hasNextCover())
+					this.nextCover();
+				return;
+			}
+		}
+		
+		int off = (int)(first >>> 3);
+		int shift = (int)(first & 0x7);
+		
+		//line up on a byte boundary
+		if(shift != 0 && count > 0){
+			int n = (int)Math.min(8 - shift, count);
+			this.writeBits((b[off] & 0xff) >>> shift, n);
+			off++;
+			count -= n;
+		}
+		
+		//whole bytes, then whatever is left over
+		int whole = (int)(count >>> 3);
+		this.write(b, off, whole);
+		if((count & 0x7) != 0)
+			this.writeBits(b[off + whole] & 0xff, (int)(count & 0x7));
+	}
+	
+	/**
+	 * Writes out any pending bits and finishes off the last cover.
+	 *
+	 * @throws IOException If the listener fails.
+	 */
+	public void close() throws IOException{
+		this.finishCover();
+	}
+	
+	/**
+	 * Moves on to the next cover and lets the listener write its 
+	 * header.  The header has to fit in the cover.
+	 *
+	 * @throws IOException If there are no more covers.
+	 */
+	public void nextCover() throws IOException{
+		mInHeader = true;
+		try{
+			super.nextCover();
+		}finally{
+			mInHeader = false;
+		}
+		
+		//a cover with nothing but its header
+		if(mCursor.getRemaining() == 0 && this.hasNextCover())
+			this.nextCover();
+	}
+	
+	/**
+	 * Writes the pixel being gathered, keeping any of its bits
+	 * that were not written.
+	 */
+	protected void release(){
+		if(mMask == 0)
+			return;
+		if(mMask == (1 << (mWordBits * 3)) - 1)
+			mCover.setPixelBits(mWordX, mWordY, mWordBits, mWord);
+		else
+			mCover.setPixelBits(mWordX, mWordY, mWordBits, mWord, mMask);
+		mWord = 0;
+		mMask = 0;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The bits gathered for the current pixel, and which of 
+	 * them have been set.
+	 */
+	private int mWord, mMask;
+	
+	/**
+	 * The pixel being gathered and its bits per layer.
+	 */
+	private int mWordX, mWordY, mWordBits;
+	
+	/**
+	 * Whether a cover header is being written.
+	 */
+	private boolean mInHeader;
+}
+//end of class.
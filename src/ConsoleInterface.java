@@ -0,0 +1,127 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.util;
+
+import java.io.PrintStream;
+
+/**
+ * Tells the user what FireSteg is doing on the console.
+ * <P>
+ * Everything goes to standard error, leaving standard output for
+ * what a run is asked to print.  Progress is written a tenth of the
+ * way at a time, not on every chunk, so logs stay short.  There is no
+ * one to ask for a password, so a wrong password ends the run.
+ * <P>
+ * Nothing here touches AWT or Swing, so it works without a display.
+ */
+public class ConsoleInterface implements UserInterface{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Writes to standard error.
+	 */
+	public ConsoleInterface(){
+		this(System.err);
+	}
+	
+	/**
+	 * Writes to the given stream.
+	 *
+	 * @param out Where to write.
+	 */
+	public ConsoleInterface(PrintStream out){
+		mOut = out;
+	}
+	
+	
+	//FUNCTIONS
+	
+	public void show(){
+	}
+	
+	public void hide(){
+	}
+	
+	/**
+	 * Writes what is being worked on, on a line of its own.
+	 *
+	 * @param label What is being worked on.
+	 */
+	public synchronized void setLabel(String label){
+		mOut.println(label);
+	}
+	
+	public synchronized void setMax(long number){
+		mMax = number;
+		mValue = 0;
+		mStep = 0;
+	}
+	
+	/**
+	 * Adds to the progress, writing it out each time another tenth
+	 * of the total is done.
+	 *
+	 * @param number How much more has been done.
+	 */
+	public synchronized void addValue(long number){
+		mValue += number;
+		if(mMax <= 0)
+			return;
+		int step = (int)Math.min(10, mValue * 10 / mMax);
+		if(step > mStep){
+			mStep = step;
+			mOut.println("Progress: " + step * 10 + "%");
+		}
+	}
+	
+	public synchronized void showError(String message){
+		mOut.println("Error: " + message);
+	}
+	
+	/**
+	 * There is no one to ask, so there is never a new password.
+	 *
+	 * @param message Why a new password is needed.
+	 * @return Always null.
+	 */
+	public String askPassword(String message){
+		return null;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * Where everything is written.
+	 */
+	private PrintStream mOut;
+	
+	/**
+	 * The total, the progress so far, and the tenths of it written out.
+	 */
+	private long mMax, mValue;
+	private int mStep;
+}
+//end of class.
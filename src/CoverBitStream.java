@@ -0,0 +1,248 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import invisibleinktoolkit.util.EmbeddingCursor;
+
+/**
+ * A stream of bits laid over an ordered list of cover images.
+ * <P>
+ * The stream fills each cover in hiding order (see EmbeddingCursor)
+ * and then moves on to the next one, telling the listener each time
+ * so the header of the new cover can be dealt with.  Values are
+ * always hidden least significant bit first.
+ */
+public abstract class CoverBitStream{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new stream over the given covers.
+	 *
+	 * @param covers The covers, in the order they are to be used.
+	 * @param listener Told when the stream moves between covers,
+	 * may be null.
+	 */
+	protected CoverBitStream(List<CoverImage> covers, CoverListener listener){
+		mCovers = covers;
+		mListener = listener;
+		mCursor = new EmbeddingCursor();
+		mIndex = -1;
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Puts the stream at the start of one of the covers, without
+	 * telling the listener.
+	 *
+	 * @param index The position of the cover in the sequence.
+	 * @param bitsPerLayer The number of low bits used in each layer.
+	 * @throws IOException If the previous cover could not be finished.
+	 */
+	public void startCover(int index, int bitsPerLayer) throws IOException{
+		this.release();
+		mIndex = index;
+		mCover = mCovers.get(index);
+		mCursor.reset(mCover.getWidth(), mCover.getHeight(), bitsPerLayer);
+	}
+	
+	/**
+	 * Moves the stream on to the start of the next cover, finishing
+	 * off the current one.
+	 *
+	 * @throws IOException If there are no more covers, or the 
+	 * listener fails.
+	 */
+	public void nextCover() throws IOException{
+		if(!this.hasNextCover())
+			throw new EOFException("Ran out of cover images.");
+		int bits = (mIndex < 0) ? 1 : mCursor.getBitsPerLayer();
+		this.finishCover();
+		this.startCover(mIndex + 1, bits);
+		if(mListener != null)
+			mListener.coverStarted(mIndex);
+	}
+	
+	/**
+	 * Finishes off the current cover, if there is one.
+	 *
+	 * @throws IOException If the listener fails.
+	 */
+	protected void finishCover() throws IOException{
+		this.release();
+		if(mIndex >= 0 && mListener != null)
+			mListener.coverFinished(mIndex);
+	}
+	
+	/**
+	 * Whether there is another cover after the current one.
+	 *
+	 * @return True if the stream can move on to another cover.
+	 */
+	public boolean hasNextCover(){
+		return mIndex + 1 < mCovers.size();
+	}
+	
+	/**
+	 * Changes the number of low bits used in each layer, keeping 
+	 * the same position in the current cover.
+	 *
+	 * @param bitsPerLayer The number of low bits used in each layer.
+	 * @throws IOException If pending bits could not be written.
+	 */
+	public void setBitsPerLayer(int bitsPerLayer) throws IOException{
+		this.release();
+		mCursor.setBitsPerLayer(bitsPerLayer);
+	}
+	
+	/**
+	 * Moves to a given position in the current cover.
+	 *
+	 * @param position The number of bits before the new position.
+	 * @throws IOException If pending bits could not be written.
+	 */
+	public void seek(long position) throws IOException{
+		this.release();
+		mCursor.seek(position);
+	}
+	
+	/**
+	 * Gets the position in the current cover.
+	 *
+	 * @return The number of bits before the current position.
+	 */
+	public long getPosition(){
+		return mCursor.getPosition();
+	}
+	
+	/**
+	 * Gets the number of bits left in the current cover.
+	 *
+	 * @return The number of bits still available in this cover.
+	 */
+	public long getRemaining(){
+		return mCursor.getRemaining();
+	}
+	
+	/**
+	 * Gets the position of the current cover in the sequence.
+	 *
+	 * @return The index of the current cover, or -1 before the first.
+	 */
+	public int getCoverIndex(){
+		return mIndex;
+	}
+	
+	/**
+	 * Gives the stream a pool to split long runs of bits over, as
+	 * bands of rows worked on by separate threads.
+	 *
+	 * @param pool The pool to use, or null to do everything on the
+	 * calling thread.
+	 */
+	public void setPool(ForkJoinPool pool){
+		mPool = pool;
+	}
+	
+	/**
+	 * Runs a banded task on the pool and waits for it.
+	 *
+	 * @param bands The task to run.
+	 * @throws IOException If one of the bands failed.
+	 */
+	protected void invoke(RowBands bands) throws IOException{
+		try{
+			//from inside the pool, just join in
+			if(ForkJoinTask.inForkJoinPool())
+				bands.invoke();
+			else
+				mPool.invoke(bands);
+		}catch(RuntimeException e){
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Lets go of the pixel currently being worked on, before the
+	 * cursor is moved somewhere other than the next bit.
+	 *
+	 * @throws IOException If pending bits could not be written.
+	 */
+	protected abstract void release() throws IOException;
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The covers, in the order they are used.
+	 */
+	protected List<CoverImage> mCovers;
+	
+	/**
+	 * Told when the stream moves between covers.
+	 */
+	protected CoverListener mListener;
+	
+	/**
+	 * The position in the current cover.
+	 */
+	protected EmbeddingCursor mCursor;
+	
+	/**
+	 * The cover currently being worked on.
+	 */
+	protected CoverImage mCover;
+	
+	/**
+	 * The index of the current cover.
+	 */
+	protected int mIndex;
+	
+	/**
+	 * The pool long runs of bits are split over, or null.
+	 */
+	protected ForkJoinPool mPool;
+	
+	/**
+	 * Bits in each byte in reverse order, for bytes that are hidden
+	 * most significant bit first.
+	 */
+	protected static final byte[] REVERSED = new byte[256];
+	
+	static{
+		for(int i = 0; i < 256; i++)
+			REVERSED[i] = (byte)(Integer.reverse(i) >>> 24);
+	}
+}
+//end of class.
@@ -24,9 +24,27 @@
 package invisibleinktoolkit.stego;
 
 import java.io.File;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import invisibleinktoolkit.util.PngRowReader;
+import invisibleinktoolkit.util.PngRowWriter;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -64,10 +82,356 @@ public class CoverImage{
 		
 		//read in the image - appropriate reader will be 
 		//automatically chosen from the registered list.
+		CoverLoadEvent event = new CoverLoadEvent();
+		event.begin();
 		mCover = ImageIO.read(temp);
+		if (mCover != null) 
+			this.commitLoad(event, "eager", mCover.getWidth(), mCover.getHeight(), mCover.getHeight());
 		
 		if (shouldDelete) temp.delete();
 		
+		this.checkImage();
+		mWidth = mCover.getWidth();
+		mHeight = mCover.getHeight();
+		mRows = mHeight;
+		this.bindRaster();
+	}
+	
+	/**
+	 * Creates a cover image around an image that is already in
+	 * memory, such as one another program has drawn.
+	 *
+	 * @param image The image to hide in or read from.
+	 * @param name The name to save it under.
+	 * @throws IllegalArgumentException If the image is null or its
+	 * colour depth is not deep enough.
+	 */
+	public CoverImage(BufferedImage image, String name)
+	throws IllegalArgumentException{
+		
+		mPath = name;
+		mName = name;
+		mCover = image;
+		
+		this.checkImage();
+		mWidth = mCover.getWidth();
+		mHeight = mCover.getHeight();
+		mRows = mHeight;
+		this.bindRaster();
+	}
+	
+	/**
+	 * Creates a cover image that reads an image on disk lazily,
+	 * from the top down, starting with just enough whole rows for
+	 * the given number of pixels.
+	 * <P>
+	 * More rows are only decoded when loadRows asks for them, so
+	 * reading the start of a huge image is quick.  Such a cover is
+	 * for reading hidden data back out; it is never saved.
+	 *
+	 * @param path The path to the image on disk.
+	 * @param pixels The number of pixels needed from the top.
+	 * @throws IOException If there is a problem during reading
+	 * of the file.
+	 * @throws IllegalArgumentException If the file is not a 
+	 * recognisable type.
+	 */
+	public CoverImage(String path, int pixels) throws IOException, 
+	IllegalArgumentException{
+		
+		mPath = path;
+		File temp = new File(path);
+		mName = temp.getName();
+		
+		this.readRows(pixels, true);
+	}
+	
+	/**
+	 * Creates a cover image that is streamed from an image on disk
+	 * to its output a band of rows at a time, for covers too big to
+	 * hold in memory.  The image has to be a PNG that canStream
+	 * accepts.
+	 * <P>
+	 * Only one band is ever held.  Rows can only be worked on from
+	 * the top down: when loadRows moves past the band, it is written
+	 * out and the next one read in.  finish writes out the rest of
+	 * the image instead of save.
+	 *
+	 * @param path The path to the image on disk.
+	 * @param shouldDelete Whether to delete the image once it has
+	 * been read.
+	 * @param outputDirectory Where to write the finished cover.
+	 * @throws IOException If the image could not be read.
+	 */
+	public CoverImage(String path, Boolean shouldDelete, String outputDirectory)
+	throws IOException{
+		
+		mPath = path;
+		File temp = new File(path);
+		mName = temp.getName();
+		if (!mName.endsWith(".png") && !mName.endsWith(".PNG")) mName = mName + ".png";
+		mShouldDelete = shouldDelete;
+		mOutput = new File(outputDirectory, mName);
+		
+		CoverLoadEvent event = new CoverLoadEvent();
+		event.begin();
+		PngRowReader png = new PngRowReader(path);
+		try{
+			mWidth = png.getWidth();
+			mHeight = png.getHeight();
+			mStreamType = png.getImageType();
+		}finally{
+			png.close();
+		}
+		this.commitLoad(event, "streamed", mWidth, mHeight, 0);
+		
+		//a band is a few million pixels, but always holds the header
+		mBandRows = (int) Math.max((STREAM_BAND_PIXELS + mWidth - 1) / mWidth, 
+				(HEADER_PIXELS + mWidth - 1) / mWidth);
+		mBandRows = Math.min(mBandRows, mHeight);
+		mCover = new BufferedImage(mWidth, mBandRows, mStreamType);
+		this.bindRaster();
+	}
+	
+	/**
+	 * Whether an image on disk can be streamed a band at a time by
+	 * a streamed cover, and is at least a given size.
+	 *
+	 * @param path The path to the image on disk.
+	 * @param pixels The fewest pixels it needs to have.
+	 * @return True if it is a PNG that can be streamed.
+	 */
+	public static boolean canStream(String path, long pixels){
+		try{
+			PngRowReader png = new PngRowReader(path);
+			png.close();
+			return png.isStreamable() 
+				&& (long) png.getWidth() * png.getHeight() >= pixels;
+		}catch(IOException e){
+			return false;
+		}
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Makes sure at least the given number of rows from the top
+	 * have been read.  Only lazy covers ever need to read more.
+	 * Since every read starts again from the top, they read at
+	 * least four times as many rows as they hold each time, so all
+	 * the reads together come to no more than a third extra.
+	 *
+	 * @param rows The number of rows needed.
+	 * @throws IOException If the image could not be read.
+	 */
+	public synchronized void loadRows(int rows) throws IOException{
+		if(rows <= mTop + mRows)
+			return;
+		if(mOutput != null){
+			this.streamRows(rows);
+			return;
+		}
+		rows = Math.max(rows, Math.max(mRows * 4, BAND_ROWS));
+		this.readRows((long) Math.min(rows, mHeight) * mWidth, false);
+	}
+	
+	/**
+	 * Moves a streamed cover's band down until it holds the given
+	 * row, writing out each band it leaves.
+	 *
+	 * @param rows The number of rows from the top that are needed.
+	 * @throws IOException If the image could not be read or written.
+	 */
+	private void streamRows(int rows) throws IOException{
+		if(mReader == null){
+			mReader = new PngRowReader(mPath);
+			mTempOutput = File.createTempFile("firesteg", ".png", mOutput.getAbsoluteFile().getParentFile());
+			mWriter = new PngRowWriter(mTempOutput.getPath(), mWidth, mHeight, mReader.hasAlpha(),
+					mLevel, mPool);
+		}
+		while(mTop + mRows < rows){
+			mWriter.writeRows(mCover, mRows);
+			mTop += mRows;
+			mRows = Math.min(mBandRows, mHeight - mTop);
+			mReader.readRows(mCover, mRows);
+			this.bindRaster();
+		}
+	}
+	
+	/**
+	 * Writes out the rest of a streamed cover, reading through any
+	 * rows that were never reached, and closes it off.
+	 *
+	 * @throws IOException If the image could not be read or written.
+	 */
+	public synchronized void finish() throws IOException{
+		PngWriteEvent event = new PngWriteEvent();
+		event.begin();
+		this.streamRows(mHeight);
+		mWriter.writeRows(mCover, mRows);
+		mWriter.close();
+		mReader.close();
+		
+		//written beside the output, in case it is the image being read
+		Files.move(mTempOutput.toPath(), mOutput.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		if(mShouldDelete && !mOutput.getCanonicalFile().equals(new File(mPath).getCanonicalFile()))
+			new File(mPath).delete();
+		mCover = null;
+		this.commitWrite(event, mOutput, true);
+	}
+	
+	/**
+	 * Writes the cover out as a PNG.  Images PngRowWriter can take
+	 * are written by it, any others by ImageIO.
+	 *
+	 * @param file Where to write the image.
+	 * @throws IOException If the image could not be written.
+	 */
+	public void save(File file) throws IOException{
+		PngWriteEvent event = new PngWriteEvent();
+		event.begin();
+		if(!PngRowWriter.canWrite(mCover)){
+			ImageIO.write(mCover, "png", file);
+		}else{
+			PngRowWriter writer = new PngRowWriter(file.getPath(), mWidth, mHeight, 
+					mCover.getColorModel().hasAlpha(), mLevel, mPool);
+			writer.writeRows(mCover, mHeight);
+			writer.close();
+		}
+		this.commitWrite(event, file, false);
+	}
+	
+	/**
+	 * Sends off a PNG write event if it is being recorded.
+	 */
+	private void commitWrite(PngWriteEvent event, File file, boolean streamed){
+		event.end();
+		if(event.shouldCommit()){
+			event.path = file.getPath();
+			event.pixels = this.getPixelCount();
+			event.fileSize = file.length();
+			event.level = mLevel;
+			event.streamed = streamed;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Sets how hard the cover is compressed when it is written,
+	 * by save or, for a streamed cover, as it goes.
+	 *
+	 * @param level The deflate level, from 0 (stored) to 9 (smallest).
+	 * @param pool Compresses parts of the image at once, or null.
+	 */
+	public void setCompression(int level, ForkJoinPool pool){
+		mLevel = level;
+		mPool = pool;
+	}
+	
+	/**
+	 * Whether this cover is streamed to its output a band at a time.
+	 */
+	public boolean isStreamed(){
+		return mOutput != null;
+	}
+	
+	/**
+	 * Reads the rows at the top of the image, just enough of them
+	 * for the given number of pixels, in place of what was held.
+	 * <P>
+	 * Image formats like PNG can only be decoded from the top, so
+	 * this always starts there, but stops at the last row needed.
+	 *
+	 * @param pixels The number of pixels needed from the top.
+	 * @param first Whether this is the first read, so the image
+	 * has to be checked.
+	 * @throws IOException If the image could not be read.
+	 */
+	private void readRows(long pixels, boolean first) throws IOException{
+		CoverLoadEvent event = new CoverLoadEvent();
+		event.begin();
+		ImageInputStream stream = ImageIO.createImageInputStream(new File(mPath));
+		if(stream == null)
+			throw new IOException("Can't read " + mPath);
+		BufferedImage image = null;
+		try{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if(readers.hasNext()){
+				final ImageReader reader = readers.next();
+				try{
+					reader.setInput(stream, true, true);
+					mWidth = reader.getWidth(0);
+					mHeight = reader.getHeight(0);
+					final int rows = (int) Math.min(mHeight, (pixels + mWidth - 1) / mWidth);
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceRegion(new Rectangle(0, 0, mWidth, rows));
+					//some readers keep decoding to the bottom of the image even
+					//though nothing past the region is kept, so stop them once it is in
+					//(interlaced images fill rows in over several passes, so are left be)
+					reader.addIIOReadUpdateListener(new IIOReadUpdateListener(){
+						public void imageUpdate(ImageReader source, BufferedImage image,
+								int minX, int minY, int width, int height,
+								int periodX, int periodY, int[] bands){
+							if(periodX == 1 && periodY == 1 && minY + height >= rows)
+								source.abort();
+						}
+						public void passStarted(ImageReader source, BufferedImage image,
+								int pass, int minPass, int maxPass, int minX, int minY,
+								int periodX, int periodY, int[] bands){
+						}
+						public void passComplete(ImageReader source, BufferedImage image){
+						}
+						public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail,
+								int pass, int minPass, int maxPass, int minX, int minY,
+								int periodX, int periodY, int[] bands){
+						}
+						public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail){
+						}
+						public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail,
+								int minX, int minY, int width, int height,
+								int periodX, int periodY, int[] bands){
+						}
+					});
+					image = reader.read(0, param);
+				}finally{
+					reader.dispose();
+				}
+			}
+		}finally{
+			stream.close();
+		}
+		
+		mCover = image;
+		if(first)
+			this.checkImage();
+		mRows = mCover.getHeight();
+		this.bindRaster();
+		this.commitLoad(event, "lazy", mWidth, mHeight, mRows);
+	}
+	
+	/**
+	 * Sends off a cover load event if it is being recorded.
+	 */
+	private void commitLoad(CoverLoadEvent event, String kind, int width, int height, int rows){
+		event.end();
+		if(event.shouldCommit()){
+			event.path = mPath;
+			event.kind = kind;
+			event.width = width;
+			event.height = height;
+			event.rows = rows;
+			event.fileSize = new File(mPath).length();
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Checks the image was read and is a type we can deal with.
+	 *
+	 * @throws IllegalArgumentException If it is not.
+	 */
+	private void checkImage() throws IllegalArgumentException{
 		if(mCover == null){
 			throw new IllegalArgumentException
 			("File type is not a recognisable type.");
@@ -80,12 +444,8 @@ public class CoverImage{
 			throw new IllegalArgumentException
 			("Picture colour depth is not deep enough!");
 		}
-		
 	}
 	
-	
-	//FUNCTIONS
-	
 	/**
 	 * Gets the number of layers the image has.
 	 * <P>
@@ -119,10 +479,34 @@ public class CoverImage{
 	* Gets the number of pixels the image has.
 	*/
 	
-	public int getPixelCount(){
-		return mCover.getHeight() * mCover.getWidth();
+	public long getPixelCount(){
+		return (long) mHeight * mWidth;
 	}
 	
+	/**
+	 * Gets the width of the image.
+	 */
+	public int getWidth(){
+		return mWidth;
+	}
+	
+	/**
+	 * Gets the height of the whole image, even if only part of it
+	 * has been read.
+	 */
+	public int getHeight(){
+		return mHeight;
+	}
+	
+	/**
+	 * Gets the number of rows that have been read, from the top.
+	 * A streamed cover only still holds the last band of them.
+	 */
+	public int getRowsLoaded(){
+		return mTop + mRows;
+	}
+
+	
 	/**
 	 * Gets the name of the image.
 	 */
@@ -132,7 +516,8 @@ public class CoverImage{
 	
 	/**
 	 * Gets the image that is currently residing inside
-	 * this cover.
+	 * this cover.  For a lazy cover, that is only the rows
+	 * read so far, and for a streamed cover only the band held.
 	 *
 	 * @return The image inside this cover.
 	 */
@@ -151,7 +536,7 @@ public class CoverImage{
 	 * @return The bit at the given position, as the LSB of an integer.
 	 */
 	public int getPixelBit(int xpos, int ypos, int layer, int bitpos){
-		int pixel = mCover.getRGB(xpos, ypos);
+		int pixel = this.readPixel(xpos, ypos);
 		int layerpos = (layer * 8) + bitpos;
 		return ((pixel >> layerpos) & 0x1);
 	}
@@ -179,25 +564,132 @@ public class CoverImage{
 		
 		
 		//get the pixel we want to work on
-		int pixel = mCover.getRGB(xpos, ypos);
-		
-		int newcolour = 0, newpixel;
+		int pixel = this.readPixel(xpos, ypos);
 		
 		//hide the bit
-		if(newbit){
-			newcolour = 1;
-			newcolour = newcolour << (bitpos + (layer * 8));
+		int newcolour = 1 << (bitpos + (layer * 8));
+		int newpixel;
+		if(newbit)
 			newpixel = pixel | newcolour;
-		}else{
-			newcolour = 0xfffffffe;
-			for(int i = 0; i < (bitpos + (layer * 8)); i++){
-				newcolour = (newcolour << 1) | 0x1;
-			}
-			newpixel = pixel & newcolour;		 
-		}
+		else
+			newpixel = pixel & ~newcolour;
 		
 		//now set the pixel.
-		mCover.setRGB(xpos, ypos, newpixel);
+		this.writePixel(xpos, ypos, newpixel);
+	}
+	
+	/**
+	 * Gets the lowest bits of one layer of a pixel in one go.
+	 *
+	 * @param xpos The x position of the pixel.
+	 * @param ypos The y position of the pixel.
+	 * @param layer The layer (R,G,B) to read.
+	 * @param bitcount The number of low bits to read (1 - 8).
+	 * @return The bits, with bit 0 of the layer in the LSB.
+	 */
+	public int getLayerBits(int xpos, int ypos, int layer, int bitcount){
+		int lowmask = (1 << bitcount) - 1;
+		switch(mLayout){
+		case LAYOUT_3BYTE_BGR:
+		case LAYOUT_4BYTE_ABGR:
+			return mBytes[mOffset + ypos * mScanline + xpos * mPixelStride
+					+ mLayerOffsets[layer]] & lowmask;
+		default:
+			return (this.readPixel(xpos, ypos) >> (layer * 8)) & lowmask;
+		}
+	}
+	
+	/**
+	 * Sets the lowest bits of one layer of a pixel in one go.
+	 *
+	 * @param xpos The x position of the pixel.
+	 * @param ypos The y position of the pixel.
+	 * @param layer The layer (R,G,B) to change.
+	 * @param bitcount The number of low bits to replace (1 - 8).
+	 * @param value The new bits, with bit 0 of the layer in the LSB.
+	 * @throws IllegalArgumentException If the layer is incorrect.
+	 */
+	public void setLayerBits(int xpos, int ypos, int layer, int bitcount,
+			int value)
+	throws IllegalArgumentException{
+		
+		//check layer
+		if(layer > this.getLayerCount() || layer < 0 )
+			throw new IllegalArgumentException
+			("Layer is incorrect for image type!");
+		
+		int lowmask = (1 << bitcount) - 1;
+		switch(mLayout){
+		case LAYOUT_3BYTE_BGR:
+		case LAYOUT_4BYTE_ABGR:
+			int index = mOffset + ypos * mScanline + xpos * mPixelStride
+					+ mLayerOffsets[layer];
+			mBytes[index] = (byte)((mBytes[index] & ~lowmask) 
+					| (value & lowmask));
+			break;
+		default:
+			int shift = layer * 8;
+			int pixel = this.readPixel(xpos, ypos);
+			this.writePixel(xpos, ypos, (pixel & ~(lowmask << shift))
+					| ((value & lowmask) << shift));
+		}
+	}
+	
+	/**
+	 * Gets the lowest bits of all three layers of a pixel.
+	 * <P>
+	 * The bits are packed in the same order they are hidden in:
+	 * the low bits of layer 0 first, then layer 1, then layer 2.
+	 *
+	 * @param xpos The x position of the pixel.
+	 * @param ypos The y position of the pixel.
+	 * @param bitcount The number of low bits per layer (1 - 8).
+	 * @return The 3 * bitcount bits, packed from the LSB up.
+	 */
+	public int getPixelBits(int xpos, int ypos, int bitcount){
+		int pixel = this.readPixel(xpos, ypos);
+		int lowmask = (1 << bitcount) - 1;
+		return (pixel & lowmask)
+			| (((pixel >> 8) & lowmask) << bitcount)
+			| (((pixel >> 16) & lowmask) << (bitcount * 2));
+	}
+	
+	/**
+	 * Sets the lowest bits of all three layers of a pixel with
+	 * a single read and write of the pixel.
+	 *
+	 * @param xpos The x position of the pixel.
+	 * @param ypos The y position of the pixel.
+	 * @param bitcount The number of low bits per layer (1 - 8).
+	 * @param value The 3 * bitcount bits, packed as for getPixelBits.
+	 */
+	public void setPixelBits(int xpos, int ypos, int bitcount, int value){
+		this.setPixelBits(xpos, ypos, bitcount, value, -1);
+	}
+	
+	/**
+	 * Sets some of the lowest bits of all three layers of a pixel
+	 * with a single read and write of the pixel.  Bits that are
+	 * not in the mask are left as they are.
+	 *
+	 * @param xpos The x position of the pixel.
+	 * @param ypos The y position of the pixel.
+	 * @param bitcount The number of low bits per layer (1 - 8).
+	 * @param value The 3 * bitcount bits, packed as for getPixelBits.
+	 * @param mask Which of the packed bits to change.
+	 */
+	public void setPixelBits(int xpos, int ypos, int bitcount, int value,
+			int mask){
+		int lowmask = (1 << bitcount) - 1;
+		int spreadmask = (mask & lowmask)
+			| (((mask >> bitcount) & lowmask) << 8)
+			| (((mask >> (bitcount * 2)) & lowmask) << 16);
+		int spreadvalue = (value & lowmask)
+			| (((value >> bitcount) & lowmask) << 8)
+			| (((value >> (bitcount * 2)) & lowmask) << 16);
+		int pixel = this.readPixel(xpos, ypos);
+		this.writePixel(xpos, ypos, (pixel & ~spreadmask) 
+				| (spreadvalue & spreadmask));
 	}
 	
 	
@@ -230,7 +722,7 @@ public class CoverImage{
 			("Layer is incorrect for image type!");
 		
 		//get the pixel we want to work on
-		int pixel = mCover.getRGB(x, y);
+		int pixel = this.readPixel(x, y);
 				
 		byte thiscolour = (byte)((pixel >> (layer * 8)) & 0x000000ff);
 		
@@ -286,10 +778,142 @@ public class CoverImage{
 			}			
 			
 			// now set the pixel.
-			mCover.setRGB(x, y, finalcolour);			
+			this.writePixel(x, y, finalcolour);			
 		}		
 	}
 	
+	/**
+	 * Looks at the raster behind the image and, for the common
+	 * layouts, keeps a reference to the backing array so pixels can
+	 * be read and written without going through the colour model.
+	 * <P>
+	 * Anything that is not a plain INT_RGB, INT_ARGB, 3BYTE_BGR or
+	 * 4BYTE_ABGR image is left on the getRGB/setRGB path.
+	 */
+	private void bindRaster(){
+		mLayout = LAYOUT_GENERIC;
+		
+		WritableRaster raster = mCover.getRaster();
+		if(raster.getSampleModelTranslateX() != 0
+				|| raster.getSampleModelTranslateY() != 0)
+			return;
+		
+		DataBuffer buffer = raster.getDataBuffer();
+		if(buffer.getNumBanks() != 1)
+			return;
+		mOffset = buffer.getOffset();
+		
+		int type = mCover.getType();
+		if((type == BufferedImage.TYPE_INT_RGB 
+				|| type == BufferedImage.TYPE_INT_ARGB)
+				&& buffer instanceof DataBufferInt
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel){
+			
+			SinglePixelPackedSampleModel model = 
+				(SinglePixelPackedSampleModel)raster.getSampleModel();
+			mInts = ((DataBufferInt)buffer).getData();
+			mScanline = model.getScanlineStride();
+			mPixelStride = 1;
+			mLayout = (type == BufferedImage.TYPE_INT_RGB) ? 
+					LAYOUT_INT_RGB : LAYOUT_INT_ARGB;
+		}
+		else if((type == BufferedImage.TYPE_3BYTE_BGR 
+				|| type == BufferedImage.TYPE_4BYTE_ABGR)
+				&& buffer instanceof DataBufferByte
+				&& raster.getSampleModel() instanceof ComponentSampleModel){
+			
+			ComponentSampleModel model = 
+				(ComponentSampleModel)raster.getSampleModel();
+			int[] bands = model.getBandOffsets();
+			mBytes = ((DataBufferByte)buffer).getData();
+			mScanline = model.getScanlineStride();
+			mPixelStride = model.getPixelStride();
+			
+			//bands are always in R,G,B(,A) order, so the blue
+			//layer (layer 0) comes from the third band
+			mLayerOffsets = new int[4];
+			mLayerOffsets[0] = bands[2];
+			mLayerOffsets[1] = bands[1];
+			mLayerOffsets[2] = bands[0];
+			if(type == BufferedImage.TYPE_4BYTE_ABGR){
+				mLayerOffsets[3] = bands[3];
+				mLayout = LAYOUT_4BYTE_ABGR;
+			}else{
+				mLayout = LAYOUT_3BYTE_BGR;
+			}
+		}
+		
+		//pixels are asked for by their row in the whole image
+		mOffset -= mTop * mScanline;
+	}
+	
+	/**
+	 * Reads a pixel as a default sRGB (ARGB) integer, exactly as
+	 * getRGB would return it.
+	 *
+	 * @param x The x position of the pixel.
+	 * @param y The y position of the pixel.
+	 * @return The ARGB value of the pixel.
+	 */
+	private int readPixel(int x, int y){
+		int index;
+		switch(mLayout){
+		case LAYOUT_INT_RGB:
+			return mInts[mOffset + y * mScanline + x] | 0xff000000;
+		case LAYOUT_INT_ARGB:
+			return mInts[mOffset + y * mScanline + x];
+		case LAYOUT_3BYTE_BGR:
+			index = mOffset + y * mScanline + x * mPixelStride;
+			return 0xff000000
+				| ((mBytes[index + mLayerOffsets[2]] & 0xff) << 16)
+				| ((mBytes[index + mLayerOffsets[1]] & 0xff) << 8)
+				| (mBytes[index + mLayerOffsets[0]] & 0xff);
+		case LAYOUT_4BYTE_ABGR:
+			index = mOffset + y * mScanline + x * mPixelStride;
+			return ((mBytes[index + mLayerOffsets[3]] & 0xff) << 24)
+				| ((mBytes[index + mLayerOffsets[2]] & 0xff) << 16)
+				| ((mBytes[index + mLayerOffsets[1]] & 0xff) << 8)
+				| (mBytes[index + mLayerOffsets[0]] & 0xff);
+		default:
+			return mCover.getRGB(x, y - mTop);
+		}
+	}
+	
+	/**
+	 * Writes a default sRGB (ARGB) integer to a pixel, exactly as
+	 * setRGB would store it.
+	 *
+	 * @param x The x position of the pixel.
+	 * @param y The y position of the pixel.
+	 * @param argb The new ARGB value of the pixel.
+	 */
+	private void writePixel(int x, int y, int argb){
+		int index;
+		switch(mLayout){
+		case LAYOUT_INT_RGB:
+			mInts[mOffset + y * mScanline + x] = argb & 0x00ffffff;
+			break;
+		case LAYOUT_INT_ARGB:
+			mInts[mOffset + y * mScanline + x] = argb;
+			break;
+		case LAYOUT_4BYTE_ABGR:
+			index = mOffset + y * mScanline + x * mPixelStride;
+			mBytes[index + mLayerOffsets[3]] = (byte)(argb >> 24);
+			mBytes[index + mLayerOffsets[2]] = (byte)(argb >> 16);
+			mBytes[index + mLayerOffsets[1]] = (byte)(argb >> 8);
+			mBytes[index + mLayerOffsets[0]] = (byte)argb;
+			break;
+		case LAYOUT_3BYTE_BGR:
+			index = mOffset + y * mScanline + x * mPixelStride;
+			mBytes[index + mLayerOffsets[2]] = (byte)(argb >> 16);
+			mBytes[index + mLayerOffsets[1]] = (byte)(argb >> 8);
+			mBytes[index + mLayerOffsets[0]] = (byte)argb;
+			break;
+		default:
+			mCover.setRGB(x, y - mTop, argb);
+		}
+	}
+	
 	//VARIABLES
 	
 	/**
@@ -303,5 +927,103 @@ public class CoverImage{
 	private String mPath;
 	
 	private String mName;
+	
+	/**
+	 * The size of the whole image.
+	 */
+	private int mWidth, mHeight;
+	
+	/**
+	 * The rows of the image held: mRows of them, from mTop down.
+	 * Only a streamed cover ever moves on from the top.
+	 */
+	private int mTop, mRows;
+	
+	/**
+	 * Where a streamed cover is written, and the file it is written
+	 * to until it is finished.  Null for other covers.
+	 */
+	private File mOutput, mTempOutput;
+	
+	/**
+	 * The rows of a streamed cover being read and written.
+	 */
+	private PngRowReader mReader;
+	private PngRowWriter mWriter;
+	
+	/**
+	 * The number of rows in each band of a streamed cover, and the
+	 * type of image the band is.
+	 */
+	private int mBandRows, mStreamType;
+	
+	/**
+	 * How hard the cover is compressed when written, and the
+	 * threads it is compressed on, if any.
+	 */
+	private int mLevel = PngRowWriter.DEFAULT_LEVEL;
+	private ForkJoinPool mPool;
+	
+	/**
+	 * Whether a streamed cover deletes its image once read.
+	 */
+	private Boolean mShouldDelete;
+	
+	/**
+	 * About how many pixels are in each band of a streamed cover.
+	 */
+	private static final long STREAM_BAND_PIXELS = 1 << 22;
+	
+	/**
+	 * The most pixels a cover header takes up.
+	 */
+	private static final long HEADER_PIXELS = 160;
+	
+	/**
+	 * The fewest rows a lazy cover reads when it needs more.
+	 */
+	private static final int BAND_ROWS = 256;
+	
+	/**
+	 * How the pixels of the image are laid out in memory, one
+	 * of the LAYOUT constants.
+	 */
+	private int mLayout;
+	
+	/**
+	 * The backing array for INT_RGB and INT_ARGB images.
+	 */
+	private int[] mInts;
+	
+	/**
+	 * The backing array for 3BYTE_BGR and 4BYTE_ABGR images.
+	 */
+	private byte[] mBytes;
+	
+	/**
+	 * Offset of each layer (B,G,R,A) inside a pixel of mBytes.
+	 */
+	private int[] mLayerOffsets;
+	
+	/**
+	 * Offset of the first pixel in the backing array.
+	 */
+	private int mOffset;
+	
+	/**
+	 * Number of array elements between two rows.
+	 */
+	private int mScanline;
+	
+	/**
+	 * Number of array elements between two pixels in a row.
+	 */
+	private int mPixelStride;
+	
+	private static final int LAYOUT_GENERIC = 0;
+	private static final int LAYOUT_INT_RGB = 1;
+	private static final int LAYOUT_INT_ARGB = 2;
+	private static final int LAYOUT_3BYTE_BGR = 3;
+	private static final int LAYOUT_4BYTE_ABGR = 4;
 }
 //end of class.
@@ -0,0 +1,53 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.IOException;
+
+/**
+ * Told when a bit stream moves from one cover image to the next.
+ * <P>
+ * Every cover starts with its own header, so whoever drives a
+ * BitWriter or BitReader uses this to write or skip that header
+ * before the stream carries on into the cover.
+ */
+public interface CoverListener{
+	
+	/**
+	 * Called once the stream has been put at the start of a cover.
+	 *
+	 * @param index The position of the cover in the sequence.
+	 * @throws IOException If the header could not be handled.
+	 */
+	public void coverStarted(int index) throws IOException;
+	
+	/**
+	 * Called once the stream has finished with a cover.
+	 *
+	 * @param index The position of the cover in the sequence.
+	 * @throws IOException If the cover could not be finished off.
+	 */
+	public void coverFinished(int index) throws IOException;
+}
+//end of interface.
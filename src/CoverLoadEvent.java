@@ -0,0 +1,66 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for reading a cover image from disk.
+ * <P>
+ * Its duration covers decoding the image, or the rows of it read so
+ * far for a lazy cover, or just the header of a streamed cover.
+ */
+@Name("firesteg.CoverLoad")
+@Label("Cover Load")
+@Category({"FireSteg", "Cover"})
+@Description("A cover image read from disk")
+public class CoverLoadEvent extends Event{
+	
+	@Label("Path")
+	public String path;
+	
+	@Label("Width")
+	public int width;
+	
+	@Label("Height")
+	public int height;
+	
+	@Label("Rows Read")
+	@Description("The rows decoded, which for lazy and streamed covers is less than the height")
+	public int rows;
+	
+	@Label("File Size")
+	@DataAmount
+	public long fileSize;
+	
+	@Label("Kind")
+	@Description("eager, lazy or streamed")
+	public String kind;
+}
+//end of class.
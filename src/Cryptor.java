@@ -23,93 +23,442 @@
 
 package my.crypto;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.PBEParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
 
+//Each payload version has its own way of encrypting files and names, and the
+//stego header says which one an image uses.
+//
+//Version 1, used for everything hidden now, derives a 256 bit AES key with
+//PBKDF2-HMAC-SHA256 and seals the message in chunks with AES-GCM (see
+//GcmMessageCipher), so a wrong password or a damaged image is caught rather than
+//written out as garbage.
+//
+//Version 0 is kept so older images can still be read: files and names are
+//encrypted with PBEWithSHA1AndDESede (PKCS #12 key derivation, 1000 iterations
+//of SHA-1, then triple DES in CBC mode) and prefixed with their salt.
+//
+//A version 1 message starts with the salt its key was derived from, then a random
+//nonce prefix of its own. Deriving a key takes a tenth of a second on purpose, so all
+//the messages hidden in one run share one salt, and so one key, which is derived
+//once; no two of them share a nonce, since each has its own random prefix and
+//numbers its chunks after it. Version 0 takes its IV from the salt as well as its
+//key, so there every message gets a salt of its own, or messages that start the
+//same would encrypt the same.
+//
+//The derivation is by far the slowest part of decrypting a small file, so it is done
+//here rather than by the PBE cipher, and what is derived for a password and salt is
+//kept, along with the password tokens. Ciphers and key factories are kept per thread.
+//
+//Everything kept lasts as long as the JVM, so a daemon or a batch of runs doesn't
+//derive the same keys again. The caches are keyed on an HMAC of the password and salt
+//under a key made up when the JVM starts, so no password is kept, and so a JVM that
+//stays up for good doesn't keep every key it has ever seen, each cache is emptied once
+//it holds MAX_CACHED of them.
+
 public class Cryptor {
 	
-	public static byte[] encrypt(byte[] data, String password) throws Exception {
-		byte[] salt = new byte[8];
-		Random rand = new Random();
-		rand.nextBytes(salt);
-		
-		PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray());
-		SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithSHA1AndDESede");
-		SecretKey key = keyFactory.generateSecret(keySpec);
-		PBEParameterSpec paramSpec = new PBEParameterSpec(salt, 1000);
-		
-		Cipher cipher = Cipher.getInstance("PBEWithSHA1AndDESede");
-		cipher.init(Cipher.ENCRYPT_MODE, key, paramSpec);
-		byte[] ciphertext = cipher.doFinal(data);
-		
-		byte[] combo = new byte[salt.length + ciphertext.length];
-		System.arraycopy(salt, 0, combo, 0, salt.length);
-		System.arraycopy(ciphertext, 0, combo, salt.length, ciphertext.length);
-		
-		return combo;
+	public static final int LEGACY_VERSION = 0;
+	public static final int GCM_VERSION = 1;
+	
+	//The version used for everything hidden now.
+	public static final int VERSION = GCM_VERSION;
+	
+	public static final int SALT_SIZE = 8;
+	public static final int BLOCK_SIZE = 8;
+	
+	private static final int ITERATIONS = 1000;
+	private static final String TRANSFORMATION = "DESede/CBC/PKCS5Padding";
+	
+	private static final int GCM_ITERATIONS = 100000;
+	private static final String GCM_KDF = "PBKDF2WithHmacSHA256";
+	private static final byte[] GCM_TOKEN_SALT = "FireSteg token v1".getBytes();
+	
+	public static boolean isSupported(int version) {
+		return version == LEGACY_VERSION || version == GCM_VERSION;
 	}
 	
-	public static byte[] decrypt(byte[] data, String password) throws Exception {
-		byte[] salt = new byte[8];
-		byte[] ciphertext = new byte[data.length - salt.length];
-		
-		System.arraycopy(data, 0, salt, 0, salt.length);
-		System.arraycopy(data, salt.length, ciphertext, 0, ciphertext.length);
-		
-		PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray());
-		SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithSHA1AndDESede");
-		SecretKey key = keyFactory.generateSecret(keySpec);
-		PBEParameterSpec paramSpec = new PBEParameterSpec(salt, 1000);
-		
-		Cipher cipher = Cipher.getInstance("PBEWithSHA1AndDESede");
-		cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
-		return cipher.doFinal(ciphertext);
+	//A new random salt, for a run (or for one message, in version 0).
+	public static byte[] newSalt(int version) {
+		byte[] salt = new byte[version == LEGACY_VERSION ? SALT_SIZE : GcmMessageCipher.SALT_SIZE];
+		nextBytes(salt, 0, salt.length);
+		return salt;
+	}
+	
+	//Fills part of an array with random bytes.
+	static void nextBytes(byte[] b, int off, int len) {
+		byte[] bytes = new byte[len];
+		synchronized (random) {
+			random.nextBytes(bytes);
+		}
+		System.arraycopy(bytes, 0, b, off, len);
+	}
+	
+	//Gets a cipher that encrypts a whole message, putting out what goes in front of it first.
+	public static MessageCipher getEncryptor(String password, int version) throws Exception {
+		return getEncryptor(password, newSalt(version), version);
+	}
+	
+	//The same, keyed from the salt of the run the message is part of, so that every
+	//message in the run shares one key. Version 0 makes a salt of its own regardless.
+	public static MessageCipher getEncryptor(String password, byte[] salt, int version) throws Exception {
+		return getMessageCipher(Cipher.ENCRYPT_MODE, password, salt, version);
+	}
+	
+	//Gets a cipher that decrypts a whole message, taking what goes in front of it off first.
+	public static MessageCipher getDecryptor(String password, int version) throws Exception {
+		return getMessageCipher(Cipher.DECRYPT_MODE, password, null, version);
 	}
 	
-	public static long getToken(String password) throws Exception {
-		ByteBuffer bb = ByteBuffer.allocate(8);
-		bb.putLong(42);
-		byte[] encryptedToken = encryptWithoutSalt(bb.array(), password);
-		byte[] token = new byte[8];
-		System.arraycopy(encryptedToken, 0, token, 0, token.length);
+	private static MessageCipher getMessageCipher(int mode, String password, byte[] salt, int version) throws Exception {
+		if (version == LEGACY_VERSION) return new LegacyMessageCipher(mode, password);
+		if (version == GCM_VERSION) return new GcmMessageCipher(mode, password, salt);
+		throw new IllegalArgumentException("Unknown payload version " + version);
+	}
+	
+	//The size of what encrypt returns for data of the given length.
+	public static long getEncryptedSize(long length, int version) {
+		if (version == LEGACY_VERSION) {
+			//the salt, then the data padded up to the next whole block (always at least one byte of padding)
+			return SALT_SIZE + (length / BLOCK_SIZE + 1) * BLOCK_SIZE;
+		}
+		return GcmMessageCipher.getEncryptedSize(length);
+	}
+	
+	public static byte[] encrypt(byte[] data, String password, int version) throws Exception {
+		return doFinal(getEncryptor(password, version), data);
+	}
+	
+	public static byte[] encrypt(byte[] data, String password, byte[] salt, int version) throws Exception {
+		return doFinal(getEncryptor(password, salt, version), data);
+	}
+	
+	public static byte[] decrypt(byte[] data, String password, int version) throws Exception {
+		return doFinal(getDecryptor(password, version), data);
+	}
+	
+	private static byte[] doFinal(MessageCipher cipher, byte[] data) throws Exception {
+		byte[] out = new byte[cipher.getOutputSize(data.length)];
+		int count = cipher.update(data, 0, data.length, out, 0);
+		count += cipher.doFinal(out, count);
+		return (count == out.length) ? out : Arrays.copyOf(out, count);
+	}
+	
+	public static long getToken(String password, int version) throws Exception {
+		ByteBuffer key = cacheKey(version, password, new byte[0]);
+		Long cached = tokens.get(key);
+		if (cached != null) return cached.longValue();
+		
+		byte[] token;
+		if (version == LEGACY_VERSION) {
+			ByteBuffer bb = ByteBuffer.allocate(8);
+			bb.putLong(42);
+			token = encryptWithoutSalt(bb.array(), password);
+		}
+		else {
+			token = pbkdf2(password, GCM_TOKEN_SALT);
+		}
 		
-		ByteBuffer bb2 = ByteBuffer.wrap(token);
-		return bb2.getLong();
+		ByteBuffer bb2 = ByteBuffer.wrap(token, 0, 8);
+		long result = bb2.getLong();
+		bound(tokens);
+		tokens.put(key, Long.valueOf(result));
+		return result;
 	}
 	
-	public static boolean checkToken(long i, String password) throws Exception {
-		long neededToken = getToken(password);
+	public static boolean checkToken(long i, String password, int version) throws Exception {
+		long neededToken = getToken(password, version);
 		return i == neededToken;
 	}
 	
+	//Looks up the AES key for a password and salt, deriving it the first time.
+	static SecretKey getGcmKey(String password, byte[] salt) throws Exception {
+		ByteBuffer key = cacheKey(GCM_VERSION, password, salt);
+		SecretKey aes = gcmKeys.get(key);
+		if (aes == null) {
+			aes = new SecretKeySpec(pbkdf2(password, salt), "AES");
+			bound(gcmKeys);
+			gcmKeys.put(key, aes);
+		}
+		return aes;
+	}
+	
+	private static byte[] pbkdf2(String password, byte[] salt) throws Exception {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, GCM_ITERATIONS, 256);
+		KeyDerivationEvent event = new KeyDerivationEvent();
+		event.begin();
+		long wall = System.nanoTime(), cpu = cpuTime();
+		try {
+			return threadKeyFactory.get().generateSecret(spec).getEncoded();
+		}
+		finally {
+			spec.clearPassword();
+			countDerivation(wall, cpu);
+			commit(event, GCM_KDF, GCM_ITERATIONS, 256);
+		}
+	}
+	
+	//What the caches are keyed on for a password and salt: an HMAC of them under a
+	//key that only this JVM has, which can't be turned back into the password.
+	private static ByteBuffer cacheKey(int version, String password, byte[] salt) throws Exception {
+		Mac mac = threadMac.get();
+		mac.update((byte) version);
+		mac.update(salt);
+		mac.update(password.getBytes("UTF-8"));
+		return ByteBuffer.wrap(mac.doFinal());
+	}
+	
+	//Empties a cache that has got too big, so there is room for one more.
+	private static void bound(ConcurrentHashMap<?, ?> cache) {
+		if (cache.size() >= MAX_CACHED) cache.clear();
+	}
+	
+	//Keeps count of the keys derived and the time they took, in all and on each thread.
+	private static void countDerivation(long wall, long cpu) {
+		wall = System.nanoTime() - wall;
+		cpu = cpuTime() - cpu;
+		derivations.incrementAndGet();
+		derivationNanos.addAndGet(wall);
+		derivationCpuNanos.addAndGet(cpu);
+		long[] counts = threadDerivations.get();
+		counts[0]++;
+		counts[1] += wall;
+		counts[2] += cpu;
+	}
+	
+	//Sends off a key derivation event if it is being recorded.
+	private static void commit(KeyDerivationEvent event, String algorithm, int iterations, int keyBits) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.algorithm = algorithm;
+			event.iterations = iterations;
+			event.keyBits = keyBits;
+			event.commit();
+		}
+	}
+	
+	private static long cpuTime() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : 0;
+	}
+	
+	//The number of keys derived (cached ones are not counted again), and the
+	//wall and CPU time in nanoseconds it took, for reporting where time goes.
+	public static long getDerivationCount() {
+		return derivations.get();
+	}
+	
+	public static long getDerivationNanos() {
+		return derivationNanos.get();
+	}
+	
+	public static long getDerivationCpuNanos() {
+		return derivationCpuNanos.get();
+	}
+	
+	//The same, for the keys derived on this thread only, so runs done at the
+	//same time on different threads can each tell what they derived.
+	public static long getThreadDerivationCount() {
+		return threadDerivations.get()[0];
+	}
+	
+	public static long getThreadDerivationNanos() {
+		return threadDerivations.get()[1];
+	}
+	
+	public static long getThreadDerivationCpuNanos() {
+		return threadDerivations.get()[2];
+	}
+	
+	//Gets a new version 0 cipher ready to encrypt or decrypt a stream that is (or was) prefixed with the salt.
+	static Cipher getLegacyCipher(int mode, byte[] salt, String password) throws Exception {
+		Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+		init(cipher, mode, salt, password);
+		return cipher;
+	}
+	
 	private static byte[] encryptWithoutSalt (byte[] data, String password) throws Exception {
-		byte[] salt = new byte[8];
-		
-		PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray());
-		SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithSHA1AndDESede");
-		SecretKey key = keyFactory.generateSecret(keySpec);
-		PBEParameterSpec paramSpec = new PBEParameterSpec(salt, 1000);
-		
-		Cipher cipher = Cipher.getInstance("PBEWithSHA1AndDESede");
-		cipher.init(Cipher.ENCRYPT_MODE, key, paramSpec);
-		return cipher.doFinal(data);
+		return doFinal(Cipher.ENCRYPT_MODE, new byte[SALT_SIZE], password, data, 0, data.length);
 	}
 
 	private static byte[] decryptWithoutSalt(byte[] data, String password) throws Exception {
-		byte[] salt = new byte[8];
+		return doFinal(Cipher.DECRYPT_MODE, new byte[SALT_SIZE], password, data, 0, data.length);
+	}
+	
+	//Encrypts or decrypts in one go with this thread's cipher.
+	private static byte[] doFinal(int mode, byte[] salt, String password, byte[] data, int off, int len) throws Exception {
+		Cipher cipher = threadCipher.get();
+		init(cipher, mode, salt, password);
+		return cipher.doFinal(data, off, len);
+	}
+	
+	private static void init(Cipher cipher, int mode, byte[] salt, String password) throws Exception {
+		KeyMaterial material = getKeyMaterial(password, salt);
+		cipher.init(mode, material.key, material.iv);
+	}
+	
+	//Looks up the key and IV for a password and salt, deriving them the first time.
+	private static KeyMaterial getKeyMaterial(String password, byte[] salt) throws Exception {
+		ByteBuffer key = cacheKey(LEGACY_VERSION, password, salt);
+		KeyMaterial material = keyMaterial.get(key);
+		if (material == null) {
+			char[] chars = password.toCharArray();
+			//the PBE key spec only ever took printable ASCII
+			for (int i = 0; i < chars.length; i++) {
+				if (chars[i] < '\u0020' || chars[i] > '\u007E')
+					throw new InvalidKeySpecException("Password is not ASCII");
+			}
+			KeyDerivationEvent event = new KeyDerivationEvent();
+			event.begin();
+			long wall = System.nanoTime(), cpu = cpuTime();
+			material = new KeyMaterial();
+			material.key = new SecretKeySpec(derive(chars, salt, 24, 1), "DESede");
+			material.iv = new IvParameterSpec(derive(chars, salt, 8, 2));
+			bound(keyMaterial);
+			keyMaterial.put(key, material);
+			countDerivation(wall, cpu);
+			commit(event, "PKCS12-SHA1", ITERATIONS, 192);
+		}
+		return material;
+	}
+	
+	//PKCS #12 key derivation (RFC 7292, appendix B.2) with SHA-1, giving
+	//the same key (id 1) and IV (id 2) as PBEWithSHA1AndDESede.
+	private static byte[] derive(char[] chars, byte[] salt, int n, int id) throws Exception {
+		//the password as a big-endian BMPString with its null terminator
+		int length = chars.length * 2;
+		if (length == 2 && chars[0] == 0) {
+			chars = new char[0];
+			length = 0;
+		}
+		else {
+			length += 2;
+		}
+		byte[] passwd = new byte[length];
+		for (int i = 0, j = 0; i < chars.length; i++, j += 2) {
+			passwd[j] = (byte) ((chars[i] >>> 8) & 0xff);
+			passwd[j + 1] = (byte) (chars[i] & 0xff);
+		}
 		
-		PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray());
-		SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithSHA1AndDESede");
-		SecretKey key = keyFactory.generateSecret(keySpec);
-		PBEParameterSpec paramSpec = new PBEParameterSpec(salt, 1000);
+		MessageDigest sha = MessageDigest.getInstance("SHA1");
+		int v = 64;
+		int u = sha.getDigestLength();
+		int c = (n + u - 1) / u;
 		
-		Cipher cipher = Cipher.getInstance("PBEWithSHA1AndDESede");
-		cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
-		return cipher.doFinal(data);
+		byte[] d = new byte[v];
+		Arrays.fill(d, (byte) id);
+		int s = (salt.length + v - 1) / v * v;
+		int p = (passwd.length + v - 1) / v * v;
+		byte[] in = new byte[s + p];
+		repeat(salt, in, 0, s);
+		repeat(passwd, in, s, p);
+		
+		byte[] key = new byte[n];
+		byte[] b = new byte[v];
+		for (int i = 0; ; i++, n -= u) {
+			sha.update(d);
+			sha.update(in);
+			byte[] a = sha.digest();
+			for (int r = 1; r < ITERATIONS; r++)
+				a = sha.digest(a);
+			System.arraycopy(a, 0, key, u * i, Math.min(n, u));
+			if (i + 1 == c) break;
+			
+			//I_j = (I_j + B + 1) mod 2^(v*8) for each block of I
+			repeat(a, b, 0, v);
+			for (int j = 0; j < in.length; j += v) {
+				int carry = 1;
+				for (int k = v - 1; k >= 0; k--) {
+					carry += (in[j + k] & 0xff) + (b[k] & 0xff);
+					in[j + k] = (byte) carry;
+					carry >>>= 8;
+				}
+			}
+		}
+		return key;
 	}
+	
+	//Fills len bytes of dst from start with src over and over.
+	private static void repeat(byte[] src, byte[] dst, int start, int len) {
+		if (src.length == 0) return;
+		for (int off = 0; off < len; off += src.length)
+			System.arraycopy(src, 0, dst, start + off, Math.min(src.length, len - off));
+	}
+	
+	private static class KeyMaterial {
+		SecretKeySpec key;
+		IvParameterSpec iv;
+	}
+	
+	private static Random random = new SecureRandom();
+	private static ConcurrentHashMap<ByteBuffer, Long> tokens = new ConcurrentHashMap<ByteBuffer, Long>();
+	private static ConcurrentHashMap<ByteBuffer, KeyMaterial> keyMaterial = new ConcurrentHashMap<ByteBuffer, KeyMaterial>();
+	private static ConcurrentHashMap<ByteBuffer, SecretKey> gcmKeys = new ConcurrentHashMap<ByteBuffer, SecretKey>();
+	private static SecretKey cacheSecret = newCacheSecret();
+	private static AtomicLong derivations = new AtomicLong();
+	private static AtomicLong derivationNanos = new AtomicLong();
+	private static AtomicLong derivationCpuNanos = new AtomicLong();
+	private static ThreadLocal<long[]> threadDerivations = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[3]; //count, wall time, CPU time
+		}
+	};
+	
+	private static final int MAX_CACHED = 1024; //the most entries a cache holds
+	
+	private static SecretKey newCacheSecret() {
+		byte[] secret = new byte[32];
+		random.nextBytes(secret);
+		return new SecretKeySpec(secret, "HmacSHA256");
+	}
+	
+	private static ThreadLocal<Cipher> threadCipher = new ThreadLocal<Cipher>() {
+		protected Cipher initialValue() {
+			try {
+				return Cipher.getInstance(TRANSFORMATION);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+	
+	private static ThreadLocal<SecretKeyFactory> threadKeyFactory = new ThreadLocal<SecretKeyFactory>() {
+		protected SecretKeyFactory initialValue() {
+			try {
+				return SecretKeyFactory.getInstance(GCM_KDF);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+	
+	private static ThreadLocal<Mac> threadMac = new ThreadLocal<Mac>() {
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(cacheSecret);
+				return mac;
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
 }
@@ -0,0 +1,47 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+/**
+ * A request to read the files hidden in a set of cover images.
+ * <P>
+ * The covers can be given in any order.  The files are written to
+ * the output directory under the names they were hidden with.
+ */
+public class DecodeRequest extends StegoRequest{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new request.
+	 *
+	 * @param outputDirectory Where to write the files read out.
+	 * @param password The password the files were encrypted with.
+	 */
+	public DecodeRequest(String outputDirectory, String password){
+		super(outputDirectory, password);
+	}
+	
+}
+//end of class.
@@ -0,0 +1,51 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a hidden file was read out but could not be decrypted,
+ * such as when the covers have been changed since it was hidden.
+ */
+public class DecryptException extends IOException{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new exception.
+	 *
+	 * @param message What could not be decrypted.
+	 * @param cause Why it could not be decrypted.
+	 */
+	public DecryptException(String message, Throwable cause){
+		super(message, cause);
+	}
+	
+	
+	//VARIABLES
+	
+	private static final long serialVersionUID = 1L;
+}
+//end of class.
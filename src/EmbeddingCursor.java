@@ -0,0 +1,256 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.util;
+
+/**
+ * A cursor walking the hiding order of a cover image.
+ * <P>
+ * Bits are hidden pixel by pixel in row-major order.  Inside a pixel,
+ * the low bits of layer 0 come first (bit 0 upwards), then layer 1,
+ * then layer 2.  Rather than working out the x, y, layer and bit of
+ * every position from scratch, the cursor keeps them as counters and
+ * steps them along, so walking a cover allocates nothing.
+ */
+public class EmbeddingCursor{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new cursor that is not yet on any image.
+	 */
+	public EmbeddingCursor(){
+		this.reset(0, 0, 1);
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Puts the cursor at the start of an image.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param bitsPerLayer The number of low bits used in each layer.
+	 */
+	public void reset(int width, int height, int bitsPerLayer){
+		mWidth = width;
+		mHeight = height;
+		mBitsPerLayer = bitsPerLayer;
+		mCapacity = (long)width * height * 3 * bitsPerLayer;
+		this.seek(0);
+	}
+	
+	/**
+	 * Changes the number of bits used in each layer, keeping the
+	 * cursor at the same position in the bit stream.
+	 *
+	 * @param bitsPerLayer The number of low bits used in each layer.
+	 */
+	public void setBitsPerLayer(int bitsPerLayer){
+		long position = mPosition;
+		this.reset(mWidth, mHeight, bitsPerLayer);
+		this.seek(position);
+	}
+	
+	/**
+	 * Moves the cursor to a given position in the bit stream.
+	 *
+	 * @param position The number of bits before the new position.
+	 */
+	public void seek(long position){
+		int bitsperpixel = mBitsPerLayer * 3;
+		long pixel = position / bitsperpixel;
+		int rangeupto = (int)(position - pixel * bitsperpixel);
+		mPosition = position;
+		mX = mWidth == 0 ? 0 : (int)(pixel % mWidth);
+		mY = mWidth == 0 ? 0 : (int)(pixel / mWidth);
+		mLayer = rangeupto / mBitsPerLayer;
+		mBitPosition = rangeupto - mLayer * mBitsPerLayer;
+	}
+	
+	/**
+	 * Steps the cursor on to the next bit.
+	 */
+	public void advance(){
+		mPosition++;
+		if(++mBitPosition < mBitsPerLayer)
+			return;
+		mBitPosition = 0;
+		if(++mLayer < 3)
+			return;
+		mLayer = 0;
+		if(++mX < mWidth)
+			return;
+		mX = 0;
+		mY++;
+	}
+	
+	/**
+	 * Steps the cursor on by several bits at once.  The bits must
+	 * all belong to the current pixel.
+	 *
+	 * @param count The number of bits to step over.
+	 */
+	public void advance(int count){
+		mPosition += count;
+		mBitPosition += count;
+		while(mBitPosition >= mBitsPerLayer){
+			mBitPosition -= mBitsPerLayer;
+			mLayer++;
+		}
+		if(mLayer < 3)
+			return;
+		mLayer = 0;
+		if(++mX < mWidth)
+			return;
+		mX = 0;
+		mY++;
+	}
+	
+	/**
+	 * Gets the x position of the current pixel.
+	 *
+	 * @return The x position of the current pixel.
+	 */
+	public int getX(){
+		return mX;
+	}
+	
+	/**
+	 * Gets the y position of the current pixel.
+	 *
+	 * @return The y position of the current pixel.
+	 */
+	public int getY(){
+		return mY;
+	}
+	
+	/**
+	 * Gets the layer of the current bit.
+	 *
+	 * @return The layer of the current bit.
+	 */
+	public int getLayer(){
+		return mLayer;
+	}
+	
+	/**
+	 * Gets the bit position of the current bit in its layer.
+	 *
+	 * @return The bit position (0 - LSB).
+	 */
+	public int getBitPosition(){
+		return mBitPosition;
+	}
+	
+	/**
+	 * Gets where the current bit sits among all the bits hidden
+	 * in its pixel, as packed by CoverImage.getPixelBits.
+	 *
+	 * @return The index of the current bit inside its pixel.
+	 */
+	public int getPixelOffset(){
+		return mLayer * mBitsPerLayer + mBitPosition;
+	}
+	
+	/**
+	 * Gets the number of low bits used in each layer.
+	 *
+	 * @return The number of bits used in each layer.
+	 */
+	public int getBitsPerLayer(){
+		return mBitsPerLayer;
+	}
+	
+	/**
+	 * Gets the number of bits before the cursor.
+	 *
+	 * @return The current position in the bit stream.
+	 */
+	public long getPosition(){
+		return mPosition;
+	}
+	
+	/**
+	 * Gets the number of bits left in the image after the cursor.
+	 *
+	 * @return The number of bits still available.
+	 */
+	public long getRemaining(){
+		return mCapacity - mPosition;
+	}
+	
+	/**
+	 * Makes a shot out of the current position, for debugging.
+	 *
+	 * @return A new shot at the cursor.
+	 */
+	public Shot toShot(){
+		return new Shot(mX, mY, mBitPosition, mLayer);
+	}
+	
+	/**
+	 * Provides a string representation of the cursor.
+	 *
+	 * @return A string representation of the cursor.
+	 */
+	public String toString(){
+		return "Position: " + mPosition + " " + this.toShot();
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The size of the image being walked.
+	 */
+	private int mWidth, mHeight;
+	
+	/**
+	 * The number of low bits used in each layer.
+	 */
+	private int mBitsPerLayer;
+	
+	/**
+	 * The total number of bits the image can hold.
+	 */
+	private long mCapacity;
+	
+	/**
+	 * The number of bits before the cursor.
+	 */
+	private long mPosition;
+	
+	/**
+	 * The current pixel.
+	 */
+	private int mX, mY;
+	
+	/**
+	 * The current layer and bit inside that layer.
+	 */
+	private int mLayer, mBitPosition;
+	
+}
+//end of class
@@ -0,0 +1,110 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import invisibleinktoolkit.util.PngRowWriter;
+
+/**
+ * A request to hide files in cover images.
+ * <P>
+ * The filled covers are written to the output directory under
+ * their own names.
+ */
+public class EncodeRequest extends StegoRequest{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new request.
+	 *
+	 * @param outputDirectory Where to write the filled covers.
+	 * @param password The password to encrypt the files with.
+	 */
+	public EncodeRequest(String outputDirectory, String password){
+		super(outputDirectory, password);
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Adds a file to hide.  Files are hidden in the order they are added.
+	 *
+	 * @param path The path of the file.
+	 * @param shouldDelete Whether to delete the file once it has been hidden.
+	 */
+	public void addFile(String path, boolean shouldDelete){
+		mFiles.add(path);
+		mDeleteFiles.add(Boolean.valueOf(shouldDelete));
+	}
+	
+	public List<String> getFiles(){
+		return mFiles;
+	}
+	
+	public boolean shouldDeleteFile(int index){
+		return mDeleteFiles.get(index).booleanValue();
+	}
+	
+	/**
+	 * Sets whether every PNG cover is streamed a band of rows at a
+	 * time, not just the huge ones.
+	 *
+	 * @param stream True to stream every PNG cover.
+	 */
+	public void setStream(boolean stream){
+		mStream = stream;
+	}
+	
+	public boolean getStream(){
+		return mStream;
+	}
+	
+	/**
+	 * Sets how hard to compress the covers that are written.
+	 *
+	 * @param level From 0 (stored) to 9 (smallest).
+	 */
+	public void setLevel(int level){
+		if(level < 0 || level > 9)
+			throw new IllegalArgumentException("Level must be from 0 to 9: " + level);
+		mLevel = level;
+	}
+	
+	public int getLevel(){
+		return mLevel;
+	}
+	
+	
+	//VARIABLES
+	
+	private ArrayList<String> mFiles = new ArrayList<String>();
+	private ArrayList<Boolean> mDeleteFiles = new ArrayList<Boolean>();
+	private boolean mStream;
+	private int mLevel = PngRowWriter.DEFAULT_LEVEL;
+}
+//end of class.
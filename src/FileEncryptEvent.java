@@ -0,0 +1,56 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for encrypting a file as it is hidden, from the first chunk read to the last.
+ */
+@Name("firesteg.FileEncrypt")
+@Label("File Encrypt")
+@Category({"FireSteg", "Crypto"})
+@Description("One hidden file encrypted")
+public class FileEncryptEvent extends Event{
+	
+	@Label("Path")
+	public String path;
+	
+	@Label("Plain Size")
+	@DataAmount
+	public long bytesIn;
+	
+	@Label("Encrypted Size")
+	@DataAmount
+	public long bytesOut;
+	
+	@Label("Payload Version")
+	public int version;
+}
+//end of class.
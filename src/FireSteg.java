@@ -22,34 +22,181 @@
  */
 
 import jargs.gnu.CmdLineParser;
-import invisibleinktoolkit.stego.InsertableMessage;
 import invisibleinktoolkit.stego.CoverImage;
-import invisibleinktoolkit.stego.RetrievedMessage;
-import invisibleinktoolkit.util.Shot;
+import invisibleinktoolkit.stego.BitReader;
+import invisibleinktoolkit.stego.DecryptException;
+import invisibleinktoolkit.stego.DecodeRequest;
+import invisibleinktoolkit.stego.EncodeRequest;
+import invisibleinktoolkit.stego.ProgressListener;
+import invisibleinktoolkit.stego.StegoEngine;
+import invisibleinktoolkit.stego.StegoException;
+import invisibleinktoolkit.stego.StegoRequest;
 import invisibleinktoolkit.gui.WorkingPanel;
+import invisibleinktoolkit.util.ConsoleInterface;
+import invisibleinktoolkit.util.Metrics;
+import invisibleinktoolkit.util.PngRowWriter;
+import invisibleinktoolkit.util.UserInterface;
 
-import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
 import java.util.ArrayList;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
-import java.io.FileNotFoundException;
-import javax.swing.JLabel;
-import javax.swing.JOptionPane;
-import javax.swing.JPasswordField;
+import java.io.PrintStream;
 
 import my.crypto.Cryptor;
 
 public class FireSteg {
 
-    private static void printUsage() {
-        System.err.println(
-"Usage: FireSteg [-e,--encode] [-p,--pass] [-f,--file] [-c,--cover] [-o,--output] [--dfile] [--dcover]");
+    private void printUsage() {
+        stdErr.println(
+"Usage: FireSteg [-e,--encode] [-p,--pass] [-f,--file] [-c,--cover] [-o,--output] [--dfile] [--dcover] [--threads] [--probe] [--stream] [--level] [--metrics] [--headless] [--pass-file] [--pass-env] [--batch] [--jobs]");
     }
 
-    public static void main( String[] args ) throws Exception {
+    //Runs FireSteg, exiting with one of the EXIT_ codes below so scripts can tell
+    //what went wrong. Everything that goes wrong is shown to the user first.
+
+    public static void main( String[] args ) {
+		//AWT reads this once, when it is first loaded, and it holds for the whole JVM; runs
+		//after this only go by their own --headless. A batch's runs are all --headless.
+		for (String arg : args) {
+			if (arg.equals("--headless") || arg.equals("--batch")) System.setProperty("java.awt.headless", "true");
+		}
+		final FireSteg run = new FireSteg(null, System.out, System.err);
+		//--metrics are written however FireSteg exits, so a failed or cancelled run can be looked into too
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				run.writeMetrics();
+			}
+		});
+		System.exit(run.execute(args));
+	}
+	
+	//Runs FireSteg once and returns its exit code instead of exiting, so a JVM that stays up
+	//(such as FireStegDaemon's) can do one run after another, or several at once.
+	
+	public static int execute(String[] args, File dir, PrintStream out, PrintStream err) {
+		return new FireSteg(dir, out, err).execute(args);
+	}
+	
+	//Sets up a run. Everything a run keeps is its own, so any number can be done at once.
+	//Relative paths in its arguments are taken from dir, or the current directory if it is null.
+	//What it prints goes to out, and progress and errors with --headless go to err.
+	
+	public FireSteg(File dir, PrintStream out, PrintStream err) {
+		baseDir = dir;
+		stdOut = out;
+		stdErr = err;
+	}
+	
+	//Does the run and returns its exit code. Everything that goes wrong is shown to the user first.
+	
+	public int execute(String[] args) {
+		//Cryptor's totals for the keys derived on this thread, which is where this run derives its keys
+		long derivationCount = Cryptor.getThreadDerivationCount();
+		long derivationNanos = Cryptor.getThreadDerivationNanos();
+		long derivationCpuNanos = Cryptor.getThreadDerivationCpuNanos();
+		try {
+			run(args);
+			return EXIT_OK;
+		}
+		catch (Failure e) {
+			if (e.getMessage() != null) showError(e.getMessage());
+			return e.getCode();
+		}
+		catch (StegoException e) {
+			showError(e.getMessage());
+			switch (e.getReason()) {
+				case StegoException.NO_ROOM: return EXIT_NO_ROOM;
+				case StegoException.NOT_ENCODED: return EXIT_NOT_ENCODED;
+				case StegoException.WRONG_PASSWORD: return EXIT_PASSWORD;
+				default: return EXIT_USAGE;
+			}
+		}
+		catch (DecryptException e) {
+			showError(e.getMessage());
+			return EXIT_DECRYPT;
+		}
+		catch (IOException e) {
+			showError(e.getMessage() == null ? e.toString() : e.getMessage());
+			return EXIT_IO;
+		}
+		catch (Exception e) {
+			e.printStackTrace(stdErr);
+			showError(e.toString());
+			return EXIT_FAILURE;
+		}
+		finally {
+			if (metrics != null) {
+				metrics.addPhase(Metrics.KEY_DERIVATION, Cryptor.getThreadDerivationCount() - derivationCount,
+						Cryptor.getThreadDerivationNanos() - derivationNanos,
+						Cryptor.getThreadDerivationCpuNanos() - derivationCpuNanos);
+			}
+			writeMetrics();
+		}
+	}
+	
+	//Gives up on the run, telling the user what went wrong and exiting with the given code
+	//(or returning it from execute). A null message has already been shown.
+	
+	private static void fail(String message, int code) throws Failure {
+		throw new Failure(message, code);
+	}
+	
+	//Shows an error in the window or on the console. Until one of them is set up,
+	//it goes to standard error.
+	
+	private void showError(String message) {
+		if (pane != null) pane.showError(message);
+		else stdErr.println("Error: " + message);
+	}
+	
+	//Writes the metrics of the run to the --metrics file, if there is one.
+	//Only the first call writes anything.
+	
+	private synchronized void writeMetrics() {
+		File file = metricsPath;
+		if (file == null) return;
+		metricsPath = null;
+		try {
+			metrics.write(file, completed);
+		}
+		catch (IOException e) {
+			stdErr.println("Could not write " + file + ": " + e.getMessage());
+		}
+	}
+	
+	//Takes a path given in the arguments from the directory the run was started in.
+	
+	private String resolve(String path) {
+		if (path == null || baseDir == null || new File(path).isAbsolute()) return path;
+		return new File(baseDir, path).getPath();
+	}
+	
+	private List<String> resolve(Vector<?> paths) {
+		List<String> resolved = new ArrayList<String>();
+		for (Object path : paths) resolved.add(resolve((String)path));
+		return resolved;
+	}
+	
+	//Adds the files or covers given in the arguments to a request.
+	
+	private static void addFiles(EncodeRequest request, List<String> paths, boolean shouldDelete) {
+		for (String path : paths) request.addFile(path, shouldDelete);
+	}
+	
+	private static void addCovers(StegoRequest request, List<String> paths, boolean shouldDelete) {
+		for (String path : paths) request.addCover(path, shouldDelete);
+	}
+
+    private void run( String[] args ) throws Exception {
 		
         // First, we create a command line parser.
         // If -e exists, we're encoding; otherwise, we're decoding.
@@ -66,6 +213,24 @@ public class FireSteg {
 		//The following two are for files/covers whose original should be deleted afterwards
 		CmdLineParser.Option dfile = parser.addStringOption("dfile");
 		CmdLineParser.Option dcover = parser.addStringOption("dcover");
+		//The number of threads to encode or decode with
+		CmdLineParser.Option threads = parser.addIntegerOption("threads");
+		//Only report what the header of each cover says
+		CmdLineParser.Option probe = parser.addBooleanOption("probe");
+		//Stream every PNG cover a band of rows at a time, not just the huge ones
+		CmdLineParser.Option stream = parser.addBooleanOption("stream");
+		//How hard to compress the covers that are written, 0 (stored) to 9 (smallest)
+		CmdLineParser.Option level = parser.addIntegerOption("level");
+		//Write where the time went, and how much was done, to a JSON file at exit
+		CmdLineParser.Option metricsFile = parser.addStringOption("metrics");
+		//Show progress and errors on standard error, never in a window, and never ask for a password
+		CmdLineParser.Option headless = parser.addBooleanOption("headless");
+		//Take the password from the first line of a file, or from an environment variable, instead of -p
+		CmdLineParser.Option passFile = parser.addStringOption("pass-file");
+		CmdLineParser.Option passEnv = parser.addStringOption("pass-env");
+		//Do each line of a file as a run of its own, --jobs of them at a time
+		CmdLineParser.Option batch = parser.addStringOption("batch");
+		CmdLineParser.Option jobs = parser.addIntegerOption("jobs");
 
         //Next, we parse the command line arguments, and catch any errors therein.
 		
@@ -73,460 +238,321 @@ public class FireSteg {
             parser.parse(args);
         }
         catch ( CmdLineParser.OptionException e ) {
-            System.err.println(e.getMessage());
+            stdErr.println(e.getMessage());
             printUsage();
-            System.exit(2);
+            fail(null, EXIT_USAGE);
         }
 
         //Next, we get the value(s) from the arguments we just parsed.
 		
 		Boolean encodeValue = (Boolean)parser.getOptionValue(encode, Boolean.FALSE);
 		password = (String)parser.getOptionValue(pass);
-        Vector fileValues = parser.getOptionValues(file);
-		Vector coverValues = parser.getOptionValues(cover);
-		outputValue = (String)parser.getOptionValue(output);
-		Vector dfileValues = parser.getOptionValues(dfile);
-		Vector dcoverValues = parser.getOptionValues(dcover);
-
-		//Finally, we perform the action.
-		
-		CoverImage tempCover;
-		
-		//First, we create the list of cover images, since we always need to do this.
-		imageList = new ArrayList<CoverImage>();
-		Enumeration c = coverValues.elements();
-		while (c.hasMoreElements()) {
-			tempCover = new CoverImage((String)c.nextElement(), false);
-			pixelCount = pixelCount + tempCover.getPixelCount();
-			imageList.add(tempCover);
+		String passFileValue = resolve((String)parser.getOptionValue(passFile));
+		String passEnvValue = (String)parser.getOptionValue(passEnv);
+		if (password == null && passFileValue != null) {
+			BufferedReader in = new BufferedReader(new FileReader(passFileValue));
+			try {
+				password = in.readLine();
+			}
+			finally {
+				in.close();
+			}
+			if (password == null) fail(passFileValue + " is empty.", EXIT_USAGE);
 		}
-		
-		c = dcoverValues.elements();
-		while (c.hasMoreElements()) {
-			tempCover = new CoverImage((String)c.nextElement(), true);
-			pixelCount = pixelCount + tempCover.getPixelCount();
-			imageList.add(tempCover);
+		if (password == null && passEnvValue != null) {
+			password = System.getenv(passEnvValue);
+			if (password == null) fail("The environment variable " + passEnvValue + " is not set.", EXIT_USAGE);
+		}
+        List<String> fileValues = resolve(parser.getOptionValues(file));
+		List<String> coverValues = resolve(parser.getOptionValues(cover));
+		outputValue = resolve((String)parser.getOptionValue(output));
+		List<String> dfileValues = resolve(parser.getOptionValues(dfile));
+		List<String> dcoverValues = resolve(parser.getOptionValues(dcover));
+		threadCount = Math.max(1, ((Integer)parser.getOptionValue(threads, Integer.valueOf(1))).intValue());
+		Boolean probeValue = (Boolean)parser.getOptionValue(probe, Boolean.FALSE);
+		Boolean streamValue = (Boolean)parser.getOptionValue(stream, Boolean.FALSE);
+		int levelValue = ((Integer)parser.getOptionValue(level, Integer.valueOf(PngRowWriter.DEFAULT_LEVEL))).intValue();
+		if (levelValue < 0 || levelValue > 9) {
+			stdErr.println("--level must be from 0 to 9");
+			printUsage();
+			fail(null, EXIT_USAGE);
+		}
+		headlessRun = ((Boolean)parser.getOptionValue(headless, Boolean.FALSE)).booleanValue();
+		String metricsValue = resolve((String)parser.getOptionValue(metricsFile));
+		metrics = new Metrics(encodeValue ? "encode" : "decode");
+		if (metricsValue != null) {
+			synchronized (this) {
+				metricsPath = new File(metricsValue);
+			}
 		}
 		
-		pane = new WorkingPanel();
+		//If we're doing a batch, each of its runs is done on its own.
+		String batchValue = resolve((String)parser.getOptionValue(batch));
+		if (batchValue != null) {
+			int jobsValue = ((Integer)parser.getOptionValue(jobs, Integer.valueOf(Runtime.getRuntime().availableProcessors()))).intValue();
+			batch(batchValue, Math.max(1, jobsValue));
+			completed = true;
+			return;
+		}
+
+		//Finally, we perform the action.
 		
-		if (encodeValue) { //if we're encoding
+		//If we're probing, only the top of each cover is read and nothing is written.
+		if (probeValue) {
+			probe(coverValues);
+			probe(dcoverValues);
+			completed = true;
+			return;
+		}
 		
-			pane.show();
-			pane.setLabel("Initializing...");
-			
-			InsertableMessage tempFile;
-			
-			//Create the list of files to be hidden
-			fileList = new ArrayList<InsertableMessage>();
-			Enumeration f = fileValues.elements();
-			while (f.hasMoreElements()) {
-				tempFile = new InsertableMessage((String)f.nextElement(), false, password);
-				totalFileSize = totalFileSize + tempFile.getSize() * 8 + tempFile.getName().length * 8 + sizeOfFileMetadata;
-				fileList.add(tempFile);
+		//Swing is only loaded if the window is used
+		if (headlessRun) pane = new ConsoleInterface(stdErr);
+		else pane = new WorkingPanel();
+		ProgressListener progress = new ProgressListener() {
+			public void setLabel(String label) {
+				pane.setLabel(label);
 			}
-			
-			f = dfileValues.elements();
-			while (f.hasMoreElements()) {
-				tempFile = new InsertableMessage((String)f.nextElement(), true, password);
-				totalFileSize = totalFileSize + tempFile.getSize() * 8 + tempFile.getName().length * 8 + sizeOfFileMetadata;
-				fileList.add(tempFile);
+			public void setMax(long number) {
+				pane.setMax(number);
 			}
-			
-			pane.setMax((int) totalFileSize);
-			
-			//Exit if they haven't supplied enough info
-			if (imageList.size() < 1 || fileList.size() < 1 || outputValue == null) {
-				JOptionPane.showMessageDialog(null, 
-							"To encode, you must select at least one file and cover image.",
-							"Error!",
-							JOptionPane.ERROR_MESSAGE);
-				System.exit(1);
-			}
-			
-			//Exit if the cover images don't have enough room
-			if (pixelCount * 3 * 8 - sizeOfImageMetadata * imageList.size() < totalFileSize) {
-				JOptionPane.showMessageDialog(null, 
-							"Not enough room to hide.",
-							"Error!",
-							JOptionPane.ERROR_MESSAGE);
-				System.exit(1);
-			}
-			
-			//Determine the smallest number of bits we can write to
-			bitNumber = 7;
-			while (bitNumber > 0 && pixelCount * 3 * bitNumber - sizeOfImageMetadata * imageList.size() > totalFileSize) {
-				bitNumber = bitNumber - 1;
+			public void addValue(long number) {
+				pane.addValue(number);
 			}
-			
-			//Begin encoding, one cover image at a time
-			for ( currentImage=0; currentImage<imageList.size(); currentImage++ ) {
-				pane.setLabel("Encoding " + (currentImage + 1) + " of " + imageList.size() + ": " + imageList.get(currentImage).getName());
-				encode();
-				pane.setLabel("Saving " + (currentImage + 1) + " of " + imageList.size() + ": " + imageList.get(currentImage).getName());
-				ImageIO.write(imageList.get(currentImage).getImage(), "png", new File(outputValue + "/" + imageList.get(currentImage).getName()));
-				
-				if (currentFile+1 > fileList.size()) break;
+			public String askPassword(String message) {
+				return pane.askPassword(message);
 			}
+		};
+		
+		pane.show();
+		
+		if (encodeValue) { //if we're encoding
+			EncodeRequest request = new EncodeRequest(outputValue, password);
+			addFiles(request, fileValues, false);
+			addFiles(request, dfileValues, true);
+			addCovers(request, coverValues, false);
+			addCovers(request, dcoverValues, true);
+			request.setStream(streamValue);
+			request.setLevel(levelValue);
+			request.setThreads(threadCount);
+			request.setMetrics(metrics);
+			engine.encode(request, progress);
 		}
 		else { //if we're decoding
-		
-			pane.show();
-			pane.setLabel("Initializing...");
-			
-			//Exit if they haven't supplied enough info
-			if (imageList.size() < 1 || outputValue == null) {
-				JOptionPane.showMessageDialog(null, 
-							"To decode, you must select at least one image.",
-							"Error!",
-							JOptionPane.ERROR_MESSAGE);
-				System.exit(1);
-			}
-			
-			//get the bit number
-			bitNumber = getInt(0, 0);
-			
-			if (bitNumber < 0 || bitNumber > 7) {
-				JOptionPane.showMessageDialog(null, 
-											  "This doesn't appear to be an encoded image.",
-											  "Error!",
-											  JOptionPane.ERROR_MESSAGE);
-				System.exit(1);
-			}
-			
-			//must artifically increase this count because
-			//the bitNumber was written at the lowest significant bit
-			bitsWrittenForImage *= 8;
-			
-			//get the token
-			long token = getLong(bitNumber, 0);
-			
-			while (true) {
-				if(Cryptor.checkToken(token, password)) {
-					break;
-				}
-				else {
-					JLabel label = new JLabel("Please try a new password.");
-					JPasswordField jpf = new JPasswordField();
-					int result = JOptionPane.showConfirmDialog(null,
-						new Object[]{label, jpf}, "Password incorrect!",
-						JOptionPane.OK_CANCEL_OPTION);
-					
-					if (result == JOptionPane.CANCEL_OPTION || result == JOptionPane.CLOSED_OPTION)
-						System.exit(1);
-					else {
-						password = new String(jpf.getPassword());
-						//using a blank string for decryption results in a divide by zero error,
-						//so we need to supply a default password for those who try it
-						if (password.equals(""))
-							password = "analrape";
-					}
-				}
-			}
-			
-			//get the next three numbers stored
-			totalFileCount = getInt(bitNumber, 0);
-			totalFileSize = getLong(bitNumber, 0);
-			int coverCount = getInt(bitNumber, 0);
-			
-			pane.setMax((int) totalFileSize);
-			
-			int i;
-			
-			//get the order numbers of each image and store them in an arraylist
-			ArrayList<Integer> orderList = new ArrayList<Integer>();
-			for ( i=0; i<imageList.size(); i++ ) {
-				//must artificially set this count to be the last 32 bits
-				//of the metadata space because we're working on a new image each time
-				bitsWrittenForImage = sizeOfImageMetadata-32;
-				
-				int ordernum = getInt(bitNumber, i);
-				
-				if (orderList.indexOf(new Integer(ordernum)) == -1) orderList.add(new Integer(ordernum));
-				else { //there's more than one cover image with the same order number
-					JOptionPane.showMessageDialog(null, 
-							"At least two of your images have the same order number.",
-							"Error!",
-							JOptionPane.ERROR_MESSAGE);
-					System.exit(1);
-				}
-			}
-			
-			//Exit if the order list isn't completely in line
-			for ( i=0; i<orderList.size(); i++ ) {
-				if (orderList.indexOf(new Integer(i)) == -1) {
-					JOptionPane.showMessageDialog(null,
-							"You either are missing images or are trying to decode images that don't belong together.",
-							"Error!",
-							JOptionPane.ERROR_MESSAGE);
-					System.exit(1);
-				}
-			}
-			
-			//Begin decoding, one cover image at a time, in the correct order
-			for ( i=0; i<imageList.size(); i++ ) {
-				currentImage = orderList.indexOf(new Integer(i));
-				decode();
-			}
+			DecodeRequest request = new DecodeRequest(outputValue, password);
+			addCovers(request, coverValues, false);
+			addCovers(request, dcoverValues, true);
+			request.setThreads(threadCount);
+			request.setMetrics(metrics);
+			engine.decode(request, progress);
 		}
 		
+		completed = true;
 		pane.hide();
-        System.exit(0);
     }
 	
-	//Function for encoding file(s) into image(s).
-	//First, four numbers are encoded in the beginning of the image:
-	//Bit number (int), password checker (long), total file count (int), total file size (long), cover count (int) and cover order (int).
-	//Then, before each file, their size (long), namelength (int), and name is encoded
-	//Finally, the file itself is encoded.
-
-	public static void encode() throws Exception {
-		long messagesize = fileList.get(currentFile).getSize();
-		final int messagecount = fileList.size();
-		byte[] chars = fileList.get(currentFile).getName();
-		bitsWrittenForImage = 0;
-		bitsLeftForImage = imageList.get(currentImage).getPixelCount() * 3 * (bitNumber+1);
-		nameLength = fileList.get(currentFile).getName().length;
-		int coverCount = imageList.size();
-		
-		//set the bitnumber
-		setInt(0, bitNumber);
-		
-		//must artifically increase this count because
-		//the bitNumber was written at the lowest significant bit
-		bitsWrittenForImage *= 8;
-		bitsLeftForImage = imageList.get(currentImage).getPixelCount() * 3 * (bitNumber+1) - bitsWrittenForImage;
-		
-		//set the other four numbers
-		setLong(bitNumber, Cryptor.getToken(password));
-		setInt(bitNumber, messagecount);
-		setLong(bitNumber, totalFileSize);
-		setInt(bitNumber, coverCount);
-		setInt(bitNumber, currentImage);
-		
-		//Enter the header info and then the file itself
-		while (bitsLeftForImage > 0) {
-			
-			if (bitsLeftForImage % 100000 == 0)
-				pane.addValue(100000);
-			
-			if (!fileList.get(currentFile).isHeaderFinished()) { //still need to put the header info in
-				
-				if (bitCounter < 64) { //put in the file size
-					setBit(bitNumber, ((messagesize >> bitCounter) & 0x1) == 0x1);
-					bitCounter++;
-				}
-				else if (bitCounter < 96) { //put in the name length
-					setBit(bitNumber, ((nameLength >> bitCounter % 32) & 0x1) == 0x1);
-					bitCounter++;
-				}
-				else { //put in the name
-					setBit(bitNumber, (((int) chars[intCounter] >> bitCounter % 8) & 0x1) == 0x1);
-					
-					bitCounter++;
-					if (bitCounter % 8 == 0) {
-						intCounter++;
-					}
-				}
-				
-				if (bitCounter == sizeOfFileMetadata + nameLength*8) {
-					fileList.get(currentFile).headerIsFinished();
-				}
-			}
-			else if (!fileList.get(currentFile).isFinished()) {				
-				setBit(bitNumber, fileList.get(currentFile).nextBit());
+	//Function for doing a batch of runs.
+	//Each line of the manifest holds the arguments for one run, just as they would be given to
+	//FireSteg (with double quotes around any that have spaces in them); blank lines and lines
+	//starting with # are skipped. Relative paths are taken from the manifest's directory.
+	//The runs are done jobCount at a time, each with --headless and its own FireSteg, so they
+	//keep nothing in common but Cryptor's keys and the engine's pool, which stays warm from one to the next.
+	//As each is done, in the order of the manifest, a line of JSON saying how it went is printed.
+	
+	private void batch(String manifest, int jobCount) throws Exception {
+		//every line is read first, so a mistake in the manifest is found before anything is done
+		ArrayList<String[]> jobList = new ArrayList<String[]>();
+		ArrayList<Integer> lineList = new ArrayList<Integer>();
+		BufferedReader in = new BufferedReader(new FileReader(manifest));
+		try {
+			String line;
+			for (int number = 1; (line = in.readLine()) != null; number++) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				String[] args = split(line);
+				if (args == null) fail("Line " + number + " of " + manifest + " has a quote that isn't closed.", EXIT_USAGE);
+				String[] headless = new String[args.length + 1];
+				headless[0] = "--headless";
+				System.arraycopy(args, 0, headless, 1, args.length);
+				jobList.add(headless);
+				lineList.add(Integer.valueOf(number));
 			}
-			else { //finished writing this file
-				currentFile++;
-				if (currentFile == messagecount) { //if there are no more files
-					return;
-				}
-				else { //reset these variables to get ready for the next file
-					chars = fileList.get(currentFile).getName();
-					bitCounter = 0;
-					intCounter = 0;
-					nameLength = fileList.get(currentFile).getName().length;
-					messagesize = fileList.get(currentFile).getSize();
+		}
+		finally {
+			in.close();
+		}
+		
+		final File dir = new File(manifest).getAbsoluteFile().getParentFile();
+		ExecutorService jobPool = Executors.newFixedThreadPool(jobCount);
+		ArrayList<Future<Job>> results = new ArrayList<Future<Job>>();
+		for (int i = 0; i < jobList.size(); i++) {
+			final String[] args = jobList.get(i);
+			final int line = lineList.get(i).intValue();
+			results.add(jobPool.submit(new Callable<Job>() {
+				public Job call() {
+					return new Job(dir, args, line);
 				}
+			}));
+		}
+		
+		int failures = 0;
+		try {
+			for (Future<Job> result : results) {
+				Job job = result.get();
+				if (job.getCode() != EXIT_OK) failures++;
+				stdOut.println(job.getSummary());
 			}
 		}
+		finally {
+			jobPool.shutdown();
+		}
+		if (failures > 0) fail(failures + " of " + jobList.size() + " runs in " + manifest + " failed.", EXIT_FAILURE);
 	}
 	
-	public static void decode() throws Exception {
-		bitsWrittenForImage = sizeOfImageMetadata;
-		bitsLeftForImage = imageList.get(currentImage).getPixelCount() * 3 * (bitNumber+1) - sizeOfImageMetadata;
-		long temp = 0;
+	//One run of a batch, done as soon as it is made. What it prints is kept, and
+	//how it went is summed up as a line of JSON.
+	
+	private static class Job {
 		
-		while(bitsLeftForImage > 0) { //the cover image has more to go
-			if (bitsWrittenForFile < 64) { //need to get file size
-				temp = temp << 1 | getBit(bitNumber, currentImage);
-				
-				if (bitsWrittenForFile==63) { //finished getting file size
-					//reverse it as it was retrieved backwards
-					for(int z = 0; z < 64; z++){
-						bitsLeftForFile = bitsLeftForFile << 1 | ((temp >> z) & 0x1);
-					}
-					bitsLeftForFile = bitsLeftForFile * 8;
-					temp = 0;
-				}
-				
-				bitsWrittenForFile++;
-			}
-			else if (bitsWrittenForFile < sizeOfFileMetadata) { //need to get nameLength
-				temp = temp << 1 | getBit(bitNumber, currentImage);
-				
-				if (bitsWrittenForFile==95) { //finished getting nameLength
-					//reverse it as it was retrieved backwards
-					for(int y = 0; y < 32; y++){
-						nameLength = nameLength << 1 | (((int) temp >> y) & 0x1);
-					}
-					temp =0;
-				}
-				fileName = new byte[nameLength];
-				bitsWrittenForFile++;
-			}
-			else if (bitsWrittenForFile < nameLength*8 + sizeOfFileMetadata) { //need to get name
-				temp = temp << 1 | getBit(bitNumber, currentImage);
-				
-				bitsWrittenForFile++;
-				
-				if (bitsWrittenForFile % 8 == 0) { //finished getting byte
-					int temp2 = 0;
-					//reverse it as it was retrieved backwards
-					for(int x = 0; x < 8; x++){
-						temp2 = temp2 << 1 | (((int) temp >> x) & 0x1);
-					}
-					fileName[intCounter] = (byte) temp2;
-					intCounter++;
-				}
-				
-				if (bitsWrittenForFile == nameLength*8 + sizeOfFileMetadata) { //finished getting name
-					rmess = new RetrievedMessage(outputValue, fileName, password);
-					password = rmess.getPassword(); //in case the password was updated by the user
-					fileName = rmess.getName(); //if the name is encrypted, this will decrypt it
-					pane.setLabel("Decoding " + (currentFile + 1) + " of " + totalFileCount + ": " + new String(fileName));
-					intCounter = 0;
-				}
-			}
-			else if (bitsLeftForFile > 0) { //need to get file
-				//start retrieving and writing out the message
-				Shot sh = getShot(bitNumber);
-				rmess.setNext( (imageList.get(currentImage).getPixelBit(sh.getX(), sh.getY(), sh.getLayer(), sh.getBitPosition())) == 0x1);
-				bitsLeftForFile--;
-				if (bitsLeftForFile % 100000 == 0) pane.addValue(100000);
-			}
-			else { //file is done
-				rmess.close();
-				password = rmess.getPassword(); //in case the password was updated by the user
-				currentFile++;
-				if (currentFile+1 > totalFileCount) { //if there are no more files
-					return;
-				}
-				else {
-					bitsWrittenForFile = 0;
-				}
+		public Job(File dir, String[] args, int line) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ByteArrayOutputStream err = new ByteArrayOutputStream();
+			long start = System.nanoTime();
+			mCode = execute(args, dir, new PrintStream(out, true), new PrintStream(err, true));
+			long time = (System.nanoTime() - start) / 1000000;
+			
+			//the last error is the one that ended the run
+			String error = null;
+			for (String text : err.toString().split("\n")) {
+				if (text.startsWith("Error: ")) error = text.substring(7).trim();
 			}
+			StringBuilder summary = new StringBuilder();
+			summary.append("{\"line\": ").append(line);
+			summary.append(", \"exit\": ").append(mCode);
+			summary.append(", \"ms\": ").append(time);
+			if (error != null) summary.append(", \"error\": ").append(Metrics.quote(error));
+			if (out.size() > 0) summary.append(", \"output\": ").append(Metrics.quote(out.toString()));
+			mSummary = summary.append("}").toString();
 		}
-	}
-	
-	public static Shot getShot(int bitnum) {
-		int height = imageList.get(currentImage).getImage().getHeight();
-		int width = imageList.get(currentImage).getImage().getWidth();
 		
-		//get the number of rows written so far...
-		int bitsperpixel = bitnum + 1;
-		if(height * width * bitsperpixel * 3 < bitsWrittenForImage)
-			return null;
-		int rangeupto = (int)(bitsWrittenForImage % (bitsperpixel * 3));
-		int xrow = (int)(((bitsWrittenForImage - rangeupto)/(bitsperpixel * 3)) % width);
-		int yrow = (int)((((bitsWrittenForImage - rangeupto)/(bitsperpixel * 3)) - xrow) / width);			 
-		Shot sh = new Shot(xrow, yrow, rangeupto % bitsperpixel, ((rangeupto - (rangeupto % bitsperpixel)) / bitsperpixel));
-		bitsLeftForImage--;
-		bitsWrittenForImage++;
-		return sh;
-	}
-	
-	public static void setBit(int bitnum, boolean b) {
-		Shot sh = getShot(bitnum);
-		imageList.get(currentImage).setPixelBit(sh.getX(), sh.getY(), sh.getLayer(), sh.getBitPosition(), b);
+		public int getCode() {
+			return mCode;
+		}
+		
+		public String getSummary() {
+			return mSummary;
+		}
+		
+		private int mCode;
+		private String mSummary;
 	}
 	
-	public static int getBit(int bitnum, int coverImage) {
-		Shot sh = getShot(bitNumber);
-		return imageList.get(coverImage).getPixelBit(sh.getX(), sh.getY(), sh.getLayer(), sh.getBitPosition());
-	}
+	//Splits a line of a batch manifest into arguments at spaces, except inside double quotes.
+	//Returns null if a quote isn't closed.
 	
-	public static void setInt(int bitnum, int n) {
-		for(int i = 0; i < 32; i++) { 
-			Shot sh = getShot(bitnum);
-			boolean bit = ((n >> i) & 0x1) == 0x1;
-			imageList.get(currentImage).setPixelBit(sh.getX(), sh.getY(), sh.getLayer(), sh.getBitPosition(), bit);
+	private static String[] split(String line) {
+		ArrayList<String> args = new ArrayList<String>();
+		StringBuilder arg = null;
+		boolean quoted = false;
+		for (char c : line.toCharArray()) {
+			if (c == '"') {
+				quoted = !quoted;
+				if (arg == null) arg = new StringBuilder();
+			}
+			else if (Character.isWhitespace(c) && !quoted) {
+				if (arg != null) args.add(arg.toString());
+				arg = null;
+			}
+			else {
+				if (arg == null) arg = new StringBuilder();
+				arg.append(c);
+			}
 		}
+		if (quoted) return null;
+		if (arg != null) args.add(arg.toString());
+		return args.toArray(new String[args.size()]);
 	}
 	
-	public static int getInt(int bitnum, int coverImage) {
-		int temp = 0, n = 0;
-		//get the bit number
-		for(int i = 0; i < 32; i++){
-			temp = temp << 1 | getBit(bitnum, coverImage);
+	//Thrown to give up on a run, with the code to exit with.
+	
+	private static class Failure extends Exception {
+		
+		public Failure(String message, int code) {
+			super(message);
+			mCode = code;
 		}
-		//reverse it as it was retrieved backwards
-		for(int j = 0; j < 32; j++){
-			n = n << 1 | ((temp >> j) & 0x1);
+		
+		public int getCode() {
+			return mCode;
 		}
-		return n;
+		
+		private int mCode;
+		private static final long serialVersionUID = 1L;
 	}
 	
-	public static void setLong(int bitnum, long n) {
-		for(int i = 0; i < 64; i++) { 
-			Shot sh = getShot(bitnum);
-			boolean bit = ((n >> i) & 0x1) == 0x1;
-			imageList.get(currentImage).setPixelBit(sh.getX(), sh.getY(), sh.getLayer(), sh.getBitPosition(), bit);
-		}
-	}
+	//Function for probing covers.
+	//Reads just the rows at the top of each cover that hold its header (HEADER_BITS bits
+	//take at most HEADER_BITS/3 pixels) and prints what it says, one line per cover.
+	//If a password was given, also says whether it is the one the cover was encoded with.
 	
-	public static long getLong(int bitnum, int coverImage) {
-		long temp = 0, n = 0;
-		//get the bit number
-		for(int i = 0; i < 64; i++){
-			temp = temp << 1 | getBit(bitnum, coverImage);
-		}
-		//reverse it as it was retrieved backwards
-		for(int j = 0; j < 64; j++){
-			n = n << 1 | ((temp >> j) & 0x1);
+	public void probe(List<String> paths) throws Exception {
+		for (String path : paths) {
+			long start = System.nanoTime();
+			try {
+				ArrayList<CoverImage> top = new ArrayList<CoverImage>();
+				top.add(new CoverImage(path, StegoEngine.HEADER_BITS / 3));
+				BitReader header = new BitReader(top, null);
+				header.startCover(0, 1);
+				int field = header.readInt();
+				int bits = field & 0xff;
+				int coverVersion = field >>> 8;
+				if (bits > 7 || !Cryptor.isSupported(coverVersion)) {
+					stdOut.println(path + ": not an encoded image (" + (System.nanoTime() - start) / 1000000 + " ms)");
+					continue;
+				}
+				
+				header.setBitsPerLayer(bits + 1);
+				header.seek(header.getPosition() * 8);
+				long coverToken = header.readLong();
+				int files = header.readInt();
+				long size = header.readLong();
+				int covers = header.readInt();
+				int order = header.readInt();
+				long time = (System.nanoTime() - start) / 1000000;
+				
+				String match = "";
+				if (password != null)
+					match = Cryptor.checkToken(coverToken, password, coverVersion) ? ", password matches" : ", password does not match";
+				stdOut.println(path + ": version " + coverVersion + ", " + (bits + 1) + " bits per layer, "
+					+ files + " files, " + (size + 7) / 8 + " bytes, cover " + (order + 1) + " of " + covers
+					+ match + " (" + time + " ms)");
+			}
+			catch (Exception e) {
+				stdOut.println(path + ": " + e.getMessage());
+			}
 		}
-		return n;
 	}
 	
-	/* Variables used exclusively during encoding */
-	
-	private static ArrayList<InsertableMessage> fileList; //holds all the files you want to hide
-	private static long pixelCount = 0; //keeps track of the total number of pixels in all cover images
-	private static int bitCounter = 0; //number of bits taken up by the file size and nameLength
-	private static int intCounter = 0; //number of ints taken up by the file name
-	
-	/* Variables used exclusively during decoding */
-	
-	private static RetrievedMessage rmess; //a file being retrieved
-	private static long bitsLeftForFile = 0; //bits left in the file
-	private static long bitsWrittenForFile = 0; //bits of the file written so far
-	private static int totalFileCount = 0;
-	//private static String fileName = "";
-	private static byte[] fileName;
+	private static StegoEngine engine = new StegoEngine(); //shared by every run, so its threads stay warm
+	private int threadCount = 1; //how many threads to encode/decode with
+	private Metrics metrics; //where the time goes, for --metrics
+	private volatile boolean completed = false; //whether the run got to the end, for --metrics
+	private File metricsPath; //where to write the metrics, if anywhere
+	private String outputValue; //directory the covers or retrieved files will be saved in
+	private String password;
+	private UserInterface pane; //the window, or the console if --headless
+	private boolean headlessRun; //--headless: report on the console and never open a window
+	private File baseDir; //where relative paths are from, or null for the current directory
+	private PrintStream stdOut; //where the run prints to
+	private PrintStream stdErr; //where progress and errors go when there is no window
 	
-	/* Variables used during both encoding and decoding */
+	/* Exit codes */
 	
-	private static String outputValue; //directory the retrieved files will be saved in
-	private static ArrayList<CoverImage> imageList; //holds all the cover images
-	private static int sizeOfImageMetadata = 8*32 + 2*64 + 3*32; //8 ints for bitnumber, 2 longs and 3 ints for the five other numbers
-	private static int sizeOfFileMetadata = 64 + 32; //includes only file size and name length, not the name itself
-	private static int currentImage; //the cover image currently being worked on
-	private static int currentFile = 0; //the file currently being hidden or extracted
-	private static long bitsLeftForImage = 0; //bits left in the cover image
-	private static long bitsWrittenForImage = 0; //bits read/written so far in the cover image
-	private static int nameLength = 0;
-	private static String password;
-	private static int bitNumber = 0;
-	private static long totalFileSize = 0; //keeps track of the cumulative size of all the files you're hiding
-	private static WorkingPanel pane;
+	private static final int EXIT_OK = 0;
+	private static final int EXIT_FAILURE = 1; //anything not covered below
+	private static final int EXIT_USAGE = 2; //the arguments were wrong or missing
+	private static final int EXIT_NO_ROOM = 3; //the files don't fit in the covers
+	private static final int EXIT_NOT_ENCODED = 4; //the covers hold nothing, or are missing some or mixed up with others
+	private static final int EXIT_PASSWORD = 5; //the password is wrong
+	private static final int EXIT_DECRYPT = 6; //a hidden file was read but could not be decrypted
+	private static final int EXIT_IO = 7; //a file or cover could not be read or written
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+//Runs FireSteg on a FireStegDaemon, which saves starting a new JVM for every run.
+//It takes the same arguments as FireSteg, prints what the run prints, and exits with
+//the run's exit code. The run always reports on the console (as with --headless), since
+//the daemon has no window of its own.
+//
+//The daemon is found through the file it writes when it starts (see FireStegDaemon).
+//If there is no daemon, FireSteg is run in this JVM instead, just as if it had been
+//started directly. Nothing but this class is loaded unless that happens.
+
+public class FireStegClient {
+
+    public static void main( String[] args ) {
+		Socket socket = connect();
+		if (socket == null) {
+			FireSteg.main(args);
+			return;
+		}
+		
+		try {
+			//the request
+			DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			request.writeUTF(secret);
+			request.writeUTF(new File("").getAbsolutePath());
+			request.writeInt(args.length);
+			for (String arg : args) request.writeUTF(arg);
+			request.flush();
+			
+			//what the run prints, then how it ended
+			DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			while (true) {
+				int type = response.readByte();
+				if (type == EXIT) {
+					int code = response.readInt();
+					System.out.flush();
+					System.exit(code);
+				}
+				byte[] text = new byte[response.readInt()];
+				response.readFully(text);
+				if (type == OUT) System.out.write(text, 0, text.length);
+				else System.err.write(text, 0, text.length);
+			}
+		}
+		catch (EOFException e) {
+			System.err.println("Error: the FireSteg daemon stopped before the run finished.");
+		}
+		catch (IOException e) {
+			System.err.println("Error: lost the FireSteg daemon: " + e.getMessage());
+		}
+		System.exit(1);
+	}
+	
+	//Connects to the daemon named in the daemon file, or returns null if there isn't one running.
+	
+	private static Socket connect() {
+		File file = getDaemonFile();
+		if (!file.isFile()) return null;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			String[] fields;
+			try {
+				fields = in.readLine().trim().split(" ");
+			}
+			finally {
+				in.close();
+			}
+			secret = fields[1];
+			return new Socket(InetAddress.getByName(null), Integer.parseInt(fields[0]));
+		}
+		catch (Exception e) {
+			//a daemon that has gone away, or a file that isn't one
+			return null;
+		}
+	}
+	
+	//The file a daemon writes its port and secret to. It can be set with -Dfiresteg.daemon.
+	
+	static File getDaemonFile() {
+		String path = System.getProperty("firesteg.daemon");
+		if (path == null) path = new File(System.getProperty("user.home"), ".firesteg-daemon").getPath();
+		return new File(path);
+	}
+	
+	/* What each part of a response from the daemon is */
+	
+	static final int OUT = 'o'; //something the run printed
+	static final int ERR = 'e'; //progress or an error
+	static final int EXIT = 'x'; //the run is done, and this is its exit code
+	
+	private static String secret; //proves to the daemon this user started it
+}
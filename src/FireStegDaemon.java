@@ -0,0 +1,269 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import jargs.gnu.CmdLineParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//A FireSteg that stays running and takes runs from FireStegClient, so each run is done
+//by a JVM that has already started, loaded its classes and compiled its hot code.
+//
+//It only listens on the loopback address. When it starts, it writes its port and a random
+//secret to the daemon file, which only the user who started it can read, and it only takes
+//runs from clients that send the secret back. Requests are read by a few threads, and
+//connections beyond what they can keep up with are dropped, so nothing that can't read the
+//daemon file can tie up more than those. Runs are done one at a time, in the order they
+//come in, and always report on the console (as with --headless) back to the client.
+//Running the client with --shutdown as the only argument stops the daemon once the runs
+//it has taken are done.
+
+public class FireStegDaemon {
+
+    private static void printUsage() {
+        System.err.println(
+"Usage: FireStegDaemon [--port] [--file]");
+    }
+
+    public static void main( String[] args ) throws Exception {
+		
+		CmdLineParser parser = new CmdLineParser();
+		//The port to listen on; by default, any free one
+		CmdLineParser.Option port = parser.addIntegerOption("port");
+		//Where to write the port and secret for clients to find
+		CmdLineParser.Option file = parser.addStringOption("file");
+		
+        try {
+            parser.parse(args);
+        }
+        catch ( CmdLineParser.OptionException e ) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+		
+		int portValue = ((Integer)parser.getOptionValue(port, Integer.valueOf(0))).intValue();
+		String fileValue = (String)parser.getOptionValue(file);
+		File daemonFile = fileValue != null ? new File(fileValue) : FireStegClient.getDaemonFile();
+		
+		//runs never open a window here
+		System.setProperty("java.awt.headless", "true");
+		
+		server = new ServerSocket(portValue, 50, InetAddress.getByName(null));
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : random) hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		secret = hex.toString();
+		writeDaemonFile(daemonFile, server.getLocalPort() + " " + secret);
+		System.err.println("FireSteg daemon listening on " + server.getLocalSocketAddress() + ", see " + daemonFile);
+		
+		while (true) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (SocketException e) {
+				break; //closed by --shutdown
+			}
+			try {
+				handshakes.execute(new Request(socket));
+			}
+			catch (RejectedExecutionException e) {
+				socket.close(); //too many connections waiting to be read
+			}
+		}
+		daemonFile.delete();
+		//the runs already taken are still done
+		handshakes.shutdown();
+		runs.shutdown();
+	}
+	
+	//Writes the daemon file so that only this user can read it. It is deleted when the daemon stops.
+	
+	private static void writeDaemonFile(File file, String text) throws IOException {
+		file.delete();
+		if (!file.createNewFile()) throw new IOException("Could not create " + file);
+		file.deleteOnExit();
+		file.setReadable(false, false);
+		file.setWritable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(true, true);
+		FileWriter out = new FileWriter(file);
+		try {
+			out.write(text + "\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	//Reads a run from a client, does it, and sends back what it printed and its exit code.
+	//Requests are the secret, the client's current directory and the arguments; responses are
+	//made up of parts, each of which is a type from FireStegClient followed by its contents.
+	
+	private static class Request implements Runnable {
+		
+		public Request(Socket socket) {
+			mSocket = socket;
+		}
+		
+		//Reads the request on one of the handshake threads, then queues the run.
+		
+		public void run() {
+			boolean queued = false;
+			try {
+				mSocket.setSoTimeout(REQUEST_TIMEOUT);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+				if (!MessageDigest.isEqual(in.readUTF().getBytes("UTF-8"), secret.getBytes("UTF-8"))) return;
+				mDir = new File(in.readUTF());
+				int count = in.readInt();
+				if (count < 0 || count > MAX_ARGS) return;
+				mArgs = new String[count];
+				for (int i = 0; i < count; i++) mArgs[i] = in.readUTF();
+				mSocket.setSoTimeout(0);
+				
+				mOut = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+				if (count == 1 && mArgs[0].equals("--shutdown")) {
+					server.close();
+					this.sendExit(0);
+				}
+				else {
+					runs.execute(new Runnable() {
+						public void run() {
+							execute();
+						}
+					});
+					queued = true;
+				}
+			}
+			catch (IOException e) {
+				//the client went away
+			}
+			catch (RejectedExecutionException e) {
+				//the daemon is stopping
+			}
+			finally {
+				if (!queued) this.close();
+			}
+		}
+		
+		//Does the run on the thread that does every run, so a burst of clients can't run the
+		//JVM out of memory.
+		
+		private void execute() {
+			try {
+				String[] headless = new String[mArgs.length + 1];
+				headless[0] = "--headless";
+				System.arraycopy(mArgs, 0, headless, 1, mArgs.length);
+				PrintStream out = new PrintStream(new Part(FireStegClient.OUT), true);
+				PrintStream err = new PrintStream(new Part(FireStegClient.ERR), true);
+				int code = FireSteg.execute(headless, mDir, out, err);
+				out.flush();
+				err.flush();
+				this.sendExit(code);
+			}
+			catch (IOException e) {
+				//the client went away
+			}
+			finally {
+				this.close();
+			}
+		}
+		
+		private void sendExit(int code) throws IOException {
+			synchronized (mOut) {
+				mOut.writeByte(FireStegClient.EXIT);
+				mOut.writeInt(code);
+				mOut.flush();
+			}
+		}
+		
+		private void close() {
+			try {
+				mSocket.close();
+			}
+			catch (IOException e) {
+			}
+		}
+		
+		//Sends everything written to it to the client as parts of one type. Parts are sent
+		//straight away, so the client sees progress as it is made.
+		
+		private class Part extends OutputStream {
+			
+			public Part(int type) {
+				mType = type;
+			}
+			
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+			
+			public void write(byte[] b, int off, int len) throws IOException {
+				synchronized (mOut) {
+					mOut.writeByte(mType);
+					mOut.writeInt(len);
+					mOut.write(b, off, len);
+					mOut.flush();
+				}
+			}
+			
+			private int mType;
+		}
+		
+		private Socket mSocket;
+		private File mDir;
+		private String[] mArgs;
+		private DataOutputStream mOut;
+	}
+	
+	private static final int REQUEST_TIMEOUT = 10000; //how long a client has to send its request, in ms
+	private static final int HANDSHAKE_THREADS = 4; //how many requests can be read at once
+	private static final int HANDSHAKE_QUEUE = 16; //how many connections can wait to be read before more are dropped
+	private static ExecutorService handshakes = new ThreadPoolExecutor(HANDSHAKE_THREADS, HANDSHAKE_THREADS,
+		0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(HANDSHAKE_QUEUE));
+	private static ExecutorService runs = Executors.newSingleThreadExecutor(); //does the runs, one at a time
+	private static final int MAX_ARGS = 1 << 16; //the most arguments a request can have
+	private static ServerSocket server; //takes connections from clients
+	private static String secret; //what clients must send to show they can read the daemon file
+}
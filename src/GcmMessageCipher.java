@@ -0,0 +1,242 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package my.crypto;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+//Payload version 1: a 16 byte salt and an 8 byte nonce prefix, then the message
+//cut into 64 KB chunks, each sealed on its own with AES-GCM. The nonce of a chunk
+//is the prefix followed by the chunk number, with the top bit set on the last chunk
+//so a message cannot be cut short or have chunks moved around without failing.
+//An empty message is still one (empty) chunk.
+//
+//Since no chunk depends on another, a batch of chunks is sealed (or opened) at once
+//on the pool when there is one, so one large file uses every core.
+
+class GcmMessageCipher extends MessageCipher {
+	
+	static final int SALT_SIZE = 16;
+	static final int PREFIX_SIZE = 8;
+	static final int HEADER_SIZE = SALT_SIZE + PREFIX_SIZE;
+	static final int CHUNK_SIZE = 64 * 1024;
+	static final int TAG_SIZE = 16;
+	
+	//To encrypt, the salt is the one the key is derived from; the nonce prefix is new.
+	GcmMessageCipher(int mode, String password, byte[] salt) throws Exception {
+		mMode = mode;
+		mPassword = password;
+		mHeader = new byte[HEADER_SIZE];
+		mInSize = (mode == Cipher.ENCRYPT_MODE) ? CHUNK_SIZE : CHUNK_SIZE + TAG_SIZE;
+		mOutSize = (mode == Cipher.ENCRYPT_MODE) ? CHUNK_SIZE + TAG_SIZE : CHUNK_SIZE;
+		mChunks = new byte[mInSize];
+		if (mode == Cipher.ENCRYPT_MODE) {
+			System.arraycopy(salt, 0, mHeader, 0, SALT_SIZE);
+			Cryptor.nextBytes(mHeader, SALT_SIZE, PREFIX_SIZE);
+			mKey = Cryptor.getGcmKey(password, salt);
+		}
+	}
+	
+	public void setPool(ForkJoinPool pool) {
+		mPool = pool;
+		//two chunks a thread keeps every thread busy without holding much
+		int batch = (pool == null) ? 1 : pool.getParallelism() * 2;
+		if (mFill == 0) mChunks = new byte[batch * mInSize];
+	}
+	
+	//The size of a message of the given length once encrypted, header included.
+	static long getEncryptedSize(long length) {
+		long chunks = Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		return HEADER_SIZE + length + chunks * TAG_SIZE;
+	}
+	
+	public int getOutputSize(int len) {
+		long total = (long) mFill + len;
+		if (mMode == Cipher.ENCRYPT_MODE) {
+			long chunks = Math.max(1, (total + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			return (int) ((mHeaderCount < HEADER_SIZE ? HEADER_SIZE : 0) + total + chunks * TAG_SIZE);
+		}
+		return (int) total;
+	}
+	
+	public int update(byte[] in, int off, int len, byte[] out, int outOff) throws Exception {
+		int count = 0;
+		if (mHeaderCount < HEADER_SIZE) {
+			if (mMode == Cipher.ENCRYPT_MODE) {
+				//put the header out first
+				System.arraycopy(mHeader, 0, out, outOff, HEADER_SIZE);
+				mHeaderCount = HEADER_SIZE;
+				count = HEADER_SIZE;
+			}
+			else {
+				//take the header off the front
+				int n = Math.min(len, HEADER_SIZE - mHeaderCount);
+				System.arraycopy(in, off, mHeader, mHeaderCount, n);
+				mHeaderCount += n;
+				off += n;
+				len -= n;
+				if (mHeaderCount < HEADER_SIZE) return 0;
+				byte[] salt = new byte[SALT_SIZE];
+				System.arraycopy(mHeader, 0, salt, 0, SALT_SIZE);
+				mKey = Cryptor.getGcmKey(mPassword, salt);
+			}
+		}
+		
+		while (len > 0) {
+			//full chunks are only sealed once more comes, since the last one is marked
+			if (mFill == mChunks.length) {
+				count += this.seal(false, out, outOff + count);
+			}
+			int n = Math.min(len, mChunks.length - mFill);
+			System.arraycopy(in, off, mChunks, mFill, n);
+			mFill += n;
+			off += n;
+			len -= n;
+		}
+		return count;
+	}
+	
+	public int doFinal(byte[] out, int outOff) throws Exception {
+		int count = this.update(new byte[0], 0, 0, out, outOff);
+		if (mKey == null) throw new IllegalStateException("Message is too short.");
+		return count + this.seal(true, out, outOff + count);
+	}
+	
+	//Encrypts or decrypts the chunks that have been collected, marking the
+	//last of them if the message ends there.
+	private int seal(boolean last, byte[] out, int outOff) throws Exception {
+		int chunks = Math.max(1, (mFill + mInSize - 1) / mInSize);
+		Chunks task = new Chunks(this, 0, chunks, last, out, outOff);
+		if (chunks == 1 || mPool == null) {
+			task.sealAll();
+		}
+		else {
+			try {
+				if (ForkJoinTask.inForkJoinPool()) task.invoke();
+				else mPool.invoke(task);
+			}
+			catch (RuntimeException e) {
+				//get back what a chunk threw, e.g. a bad tag
+				Throwable cause = e;
+				while (cause instanceof RuntimeException && cause.getCause() != null)
+					cause = cause.getCause();
+				if (cause instanceof Exception) throw (Exception) cause;
+				throw e;
+			}
+		}
+		
+		int count = mFill + (chunks * (mOutSize - mInSize));
+		mChunkNumber += chunks;
+		mFill = 0;
+		return count;
+	}
+	
+	//Seals a run of the collected chunks, splitting it in half until each piece is one chunk.
+	private static class Chunks extends RecursiveAction {
+		
+		Chunks(GcmMessageCipher owner, int first, int count, boolean last, byte[] out, int outOff) {
+			mOwner = owner;
+			mFirst = first;
+			mCount = count;
+			mLast = last;
+			mOut = out;
+			mOutOff = outOff;
+		}
+		
+		protected void compute() {
+			if (mCount == 1) {
+				try {
+					this.sealAll();
+				}
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			else {
+				int half = mCount / 2;
+				invokeAll(new Chunks(mOwner, mFirst, half, mLast, mOut, mOutOff),
+					new Chunks(mOwner, mFirst + half, mCount - half, mLast, mOut, mOutOff));
+			}
+		}
+		
+		void sealAll() throws Exception {
+			GcmMessageCipher c = mOwner;
+			Cipher cipher = threadCipher.get();
+			int total = Math.max(1, (c.mFill + c.mInSize - 1) / c.mInSize);
+			for (int i = mFirst; i < mFirst + mCount; i++) {
+				int off = i * c.mInSize;
+				int len = Math.min(c.mInSize, c.mFill - off);
+				boolean last = mLast && i == total - 1;
+				cipher.init(c.mMode, c.mKey, new GCMParameterSpec(TAG_SIZE * 8, nonce(c.mHeader, c.mChunkNumber + i, last)));
+				cipher.doFinal(c.mChunks, off, len, mOut, mOutOff + i * c.mOutSize);
+			}
+		}
+		
+		private GcmMessageCipher mOwner;
+		private int mFirst;
+		private int mCount;
+		private boolean mLast;
+		private byte[] mOut;
+		private int mOutOff;
+		private static final long serialVersionUID = 1L;
+	}
+	
+	static byte[] nonce(byte[] header, int chunk, boolean last) {
+		byte[] nonce = new byte[12];
+		System.arraycopy(header, SALT_SIZE, nonce, 0, PREFIX_SIZE);
+		int counter = last ? (chunk | 0x80000000) : chunk;
+		nonce[8] = (byte) (counter >>> 24);
+		nonce[9] = (byte) (counter >>> 16);
+		nonce[10] = (byte) (counter >>> 8);
+		nonce[11] = (byte) counter;
+		return nonce;
+	}
+	
+	private int mMode;
+	private String mPassword;
+	private SecretKey mKey;
+	private ForkJoinPool mPool;
+	private byte[] mHeader;
+	private int mHeaderCount;
+	private byte[] mChunks;
+	private int mInSize;
+	private int mOutSize;
+	private int mFill;
+	private int mChunkNumber;
+	
+	private static ThreadLocal<Cipher> threadCipher = new ThreadLocal<Cipher>() {
+		protected Cipher initialValue() {
+			try {
+				return Cipher.getInstance("AES/GCM/NoPadding");
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+}
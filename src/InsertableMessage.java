@@ -23,91 +23,168 @@
 
 package invisibleinktoolkit.stego;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.InputStream;
 import java.io.FileInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
 
 import my.crypto.Cryptor;
+import my.crypto.MessageCipher;
 
 /**
  * A message to hide.
  * <P>
  * A message is a file on disk that will be embedded into
- * a cover object in order to hide it.  It can read out the
- * message in terms of 0's and 1's (boolean false and true) to
- * make life easier for the encoding process.
+ * a cover object in order to hide it.  It reads out the
+ * encrypted message a chunk at a time for the encoding process.
+ * <P>
+ * The file is never held in memory: it is read a chunk at a time
+ * and passed through the cipher as it is hidden, so files of any
+ * size take the same amount of memory.  The size of the encrypted
+ * message is worked out up front from the size of the file.
+ * <P>
+ * The file stays open from the first read until the whole message
+ * has been read, or until the message is closed.
  *
  * @author Kathryn Hempstalk.
  */
-public class InsertableMessage{
+public class InsertableMessage implements Closeable{
 	
-	public InsertableMessage(String path, Boolean shouldDelete, String password) throws 
-	Exception{
+	public InsertableMessage(String path, Boolean shouldDelete, String password,
+			byte[] salt) throws Exception{
 		
 		mPath = path;
 		mFile = new File(path);
-		mName = mFile.getName().getBytes();
-		
-		//Pull the file into memory
-		byte[] plaintext = new byte[(int)mFile.length()];
-		FileInputStream tempStream = new FileInputStream(path);
-		tempStream.read(plaintext);
+		if (!mFile.isFile())
+			throw new FileNotFoundException(path);
 		
-		//Encrypt the file and filename
-		byte[] ciphertext = Cryptor.encrypt(plaintext, password);
-		mFileSize = ciphertext.length;
-		mMsgFile = new ByteArrayInputStream(ciphertext);
-		mName = Cryptor.encrypt(mFile.getName().getBytes(), password);
+		//Encrypt the filename; the file itself is encrypted as it is read
+		mPassword = password;
+		mSalt = salt;
+		mPlainSize = mFile.length();
+		mFileSize = Cryptor.getEncryptedSize(mPlainSize, Cryptor.VERSION);
+		mName = Cryptor.encrypt(mFile.getName().getBytes(), password, salt, Cryptor.VERSION);
 		
-		mBuffer = new byte[1];
 		mIsFileFinished = false;
-		mIsHeaderFinished = false;
 		mShouldDelete = shouldDelete;
-		
-		//get the first byte
-		int status = mMsgFile.read(mBuffer);
-		mCount = 8;
-		if (status == -1)
-			throw new IOException("File is empty!");
 	}
 	
-	public boolean nextBit() throws IOException{
-		//first check if we need to get another byte.
+	/**
+	 * Reads the next chunk of the encrypted message.
+	 *
+	 * @param b Where to put the bytes.
+	 * @param off The first byte to fill.
+	 * @param len The most bytes to read.
+	 * @return The number of bytes read, or -1 once the message is done.
+	 * @throws IOException If the message could not be read.
+	 */
+	public int read(byte[] b, int off, int len) throws IOException{
 		if(mIsFileFinished)
-			throw new IOException("File reading has finished!");
-		
-		//have byte, must manipulate to get bits
-		boolean bit = (((mBuffer[0] >> (mCount - 1)) &0x1) == 0x1);
-		mCount--;
+			return -1;
 		
-		if(mCount == 0){
-			//get another byte
-			int status = mMsgFile.read(mBuffer);
-			mCount = 8;
-			if( status == -1){
-				mIsFileFinished = true;
-				if (mShouldDelete) mFile.delete();
-				mMsgFile.close();
+		while(mPendingPos == mPendingEnd){
+			if(!this.fill()){
+				this.finish();
+				return -1;
 			}
 		}
 		
-		return bit;
+		int count = Math.min(len, mPendingEnd - mPendingPos);
+		System.arraycopy(mPending, mPendingPos, b, off, count);
+		mPendingPos += count;
+		return count;
 	}
 	
-	public boolean isFinished(){
-		return mIsFileFinished;
+	/**
+	 * Encrypts the next chunk of the file.  The first time round
+	 * this opens the file and sets up the cipher.
+	 *
+	 * @return False once everything has been encrypted.
+	 * @throws IOException If the file could not be read or encrypted.
+	 */
+	private boolean fill() throws IOException{
+		try{
+			if(mChannel == null){
+				mEvent = new FileEncryptEvent();
+				mEvent.begin();
+				mChannel = new FileInputStream(mFile).getChannel();
+				mCipher = Cryptor.getEncryptor(mPassword, mSalt, Cryptor.VERSION);
+				mCipher.setPool(mPool);
+				mChunk = ByteBuffer.allocate(CHUNK_SIZE);
+				mPending = new byte[mCipher.getOutputSize(CHUNK_SIZE)];
+			}
+			if(mCipherDone)
+				return false;
+			
+			mChunk.clear();
+			int count = mChannel.read(mChunk);
+			mPendingPos = 0;
+			int needed = mCipher.getOutputSize(Math.max(count, 0));
+			if(needed > mPending.length)
+				mPending = new byte[needed];
+			if(count == -1){
+				mPendingEnd = mCipher.doFinal(mPending, 0);
+				mCipherDone = true;
+			}else{
+				mPlainRead += count;
+				mPendingEnd = mCipher.update(mChunk.array(), 0, count, mPending, 0);
+			}
+			return true;
+		}catch(IOException e){
+			throw e;
+		}catch(Exception e){
+			throw new IOException("Could not encrypt " + mPath, e);
+		}
 	}
 	
-	public boolean isHeaderFinished(){
-		return mIsHeaderFinished;
+	/**
+	 * Closes the file, checking all of it was read.
+	 *
+	 * @throws IOException If the file changed size while it was read.
+	 */
+	private void finish() throws IOException{
+		mIsFileFinished = true;
+		mChannel.close();
+		if(mPlainRead != mPlainSize)
+			throw new IOException("File changed while it was being hidden: " + mPath);
+		mEvent.end();
+		if(mEvent.shouldCommit()){
+			mEvent.path = mPath;
+			mEvent.bytesIn = mPlainRead;
+			mEvent.bytesOut = mFileSize;
+			mEvent.version = Cryptor.VERSION;
+			mEvent.commit();
+		}
+		if (mShouldDelete) mFile.delete();
 	}
 	
-	public void headerIsFinished(){
-		mIsHeaderFinished = true;
+	/**
+	 * Closes the file if it is still open, for when hiding stops
+	 * before the whole message has been read.
+	 *
+	 * @throws IOException If the file could not be closed.
+	 */
+	public void close() throws IOException{
+		if(mChannel != null)
+			mChannel.close();
+	}
+	
+	/**
+	 * Lets the file be encrypted on a pool of threads, several
+	 * chunks at a time.  Must be called before the first read.
+	 *
+	 * @param pool The pool to use, or null for this thread only.
+	 */
+	public void setPool(ForkJoinPool pool){
+		mPool = pool;
+	}
+	
+	public boolean isFinished(){
+		return mIsFileFinished;
 	}
 	
 	public long getSize() {		
@@ -118,14 +195,28 @@ public class InsertableMessage{
 		return mName;
 	}
 	
+	/**
+	 * The size of each chunk read from the file.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+	
 	private String mPath;
-	private int mCount;
-	private InputStream mMsgFile;
-	private byte[] mBuffer;
 	private boolean mIsFileFinished;
-	private boolean mIsHeaderFinished;
 	private byte[] mName;
 	private File mFile;
 	private Boolean mShouldDelete;
 	private long mFileSize;
+	private long mPlainSize;
+	private long mPlainRead;
+	private String mPassword;
+	private byte[] mSalt;
+	private FileChannel mChannel;
+	private MessageCipher mCipher;
+	private ForkJoinPool mPool;
+	private boolean mCipherDone;
+	private ByteBuffer mChunk;
+	private FileEncryptEvent mEvent;
+	private byte[] mPending;
+	private int mPendingPos;
+	private int mPendingEnd;
 }
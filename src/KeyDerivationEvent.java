@@ -0,0 +1,50 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package my.crypto;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//A Flight Recorder event for deriving a key from a password. Keys are cached,
+//so there is one of these for each password and salt, not for each file.
+
+@Name("firesteg.KeyDerivation")
+@Label("Key Derivation")
+@Category({"FireSteg", "Crypto"})
+@Description("A key derived from a password")
+public class KeyDerivationEvent extends Event {
+	
+	@Label("Algorithm")
+	public String algorithm;
+	
+	@Label("Iterations")
+	public int iterations;
+	
+	@Label("Key Size")
+	@Description("The size of the key, in bits")
+	public int keyBits;
+}
@@ -0,0 +1,79 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package my.crypto;
+
+import javax.crypto.Cipher;
+
+//Payload version 0: the salt, then the message in PBEWithSHA1AndDESede.
+
+class LegacyMessageCipher extends MessageCipher {
+	
+	LegacyMessageCipher(int mode, String password) throws Exception {
+		mMode = mode;
+		mPassword = password;
+		mSalt = (mode == Cipher.ENCRYPT_MODE) ? Cryptor.newSalt(Cryptor.LEGACY_VERSION) : new byte[Cryptor.SALT_SIZE];
+		if (mode == Cipher.ENCRYPT_MODE)
+			mCipher = Cryptor.getLegacyCipher(mode, mSalt, password);
+	}
+	
+	public int getOutputSize(int len) {
+		if (mCipher == null) return len + Cryptor.BLOCK_SIZE;
+		return (mSaltCount < mSalt.length ? mSalt.length : 0) + mCipher.getOutputSize(len);
+	}
+	
+	public int update(byte[] in, int off, int len, byte[] out, int outOff) throws Exception {
+		int count = 0;
+		if (mSaltCount < mSalt.length) {
+			if (mMode == Cipher.ENCRYPT_MODE) {
+				//put the salt out first
+				System.arraycopy(mSalt, 0, out, outOff, mSalt.length);
+				mSaltCount = mSalt.length;
+				count = mSalt.length;
+			}
+			else {
+				//take the salt off the front
+				int n = Math.min(len, mSalt.length - mSaltCount);
+				System.arraycopy(in, off, mSalt, mSaltCount, n);
+				mSaltCount += n;
+				off += n;
+				len -= n;
+				if (mSaltCount < mSalt.length) return 0;
+				mCipher = Cryptor.getLegacyCipher(mMode, mSalt, mPassword);
+			}
+		}
+		return count + mCipher.update(in, off, len, out, outOff + count);
+	}
+	
+	public int doFinal(byte[] out, int outOff) throws Exception {
+		int count = this.update(new byte[0], 0, 0, out, outOff);
+		if (mCipher == null) throw new IllegalStateException("Message is too short.");
+		return count + mCipher.doFinal(out, outOff + count);
+	}
+	
+	private int mMode;
+	private String mPassword;
+	private byte[] mSalt;
+	private int mSaltCount;
+	private Cipher mCipher;
+}
@@ -0,0 +1,44 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package my.crypto;
+
+import java.util.concurrent.ForkJoinPool;
+
+//Encrypts or decrypts one message as a stream, including whatever goes in
+//front of the ciphertext (salt, nonce), in the format of one payload version.
+//Works like javax.crypto.Cipher: update as the bytes come, then doFinal once.
+
+public abstract class MessageCipher {
+	
+	//Lets a cipher whose format allows it work on several parts of the message at once.
+	public void setPool(ForkJoinPool pool) {
+	}
+	
+	//The most bytes that update(len) followed by doFinal can put out.
+	public abstract int getOutputSize(int len);
+	
+	public abstract int update(byte[] in, int off, int len, byte[] out, int outOff) throws Exception;
+	
+	public abstract int doFinal(byte[] out, int outOff) throws Exception;
+}
@@ -0,0 +1,261 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counts for one run of FireSteg, written out as JSON.
+ * <P>
+ * Time is kept for each phase of the work: wall time, and the CPU
+ * time of the threads that timed it.  Phases are timed a chunk of
+ * work at a time, never per bit or pixel, so keeping them costs next
+ * to nothing.  Phases done on several threads at once can add up to
+ * more than the wall time of the whole run.
+ * <P>
+ * Everything here can be used from any number of threads.
+ */
+public class Metrics{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Starts timing a run.
+	 *
+	 * @param mode What the run does, such as "encode".
+	 */
+	public Metrics(String mode){
+		mMode = mode;
+		mStartNanos = System.nanoTime();
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Starts timing some work in a phase on this thread.
+	 *
+	 * @param phase One of the phases, such as EMBED.
+	 * @return The timing, to end once the work is done.
+	 */
+	public Span start(int phase){
+		return new Span(phase);
+	}
+	
+	/**
+	 * Adds time to a phase that was timed some other way.
+	 *
+	 * @param phase One of the phases.
+	 * @param count The number of pieces of work timed.
+	 * @param wallNanos The wall time they took.
+	 * @param cpuNanos The CPU time they took.
+	 */
+	public void addPhase(int phase, long count, long wallNanos, long cpuNanos){
+		mPhaseCounts.addAndGet(phase, count);
+		mPhaseWall.addAndGet(phase, wallNanos);
+		mPhaseCpu.addAndGet(phase, cpuNanos);
+	}
+	
+	/**
+	 * Adds to one of the counters.
+	 *
+	 * @param counter One of the counters, such as BYTES_DECRYPTED.
+	 * @param amount How much to add.
+	 */
+	public void add(int counter, long amount){
+		mCounters.addAndGet(counter, amount);
+	}
+	
+	/**
+	 * Records a cover that has been hidden in or read from.  Each
+	 * cover also counts towards the covers processed, bits embedded
+	 * or extracted and pixels touched.
+	 *
+	 * @param index The position of the cover in the sequence.
+	 * @param name The name of the cover.
+	 * @param pixels The number of pixels in the cover.
+	 * @param bits The bits hidden in or read from it, header and all.
+	 * @param bitsPerLayer The low bits used in each layer.
+	 * @param nanos The wall time from starting the cover to finishing it.
+	 */
+	public void addCover(int index, String name, long pixels, long bits, 
+			int bitsPerLayer, long nanos){
+		long bitsPerPixel = 3L * bitsPerLayer;
+		long touched = Math.min(pixels, (bits + bitsPerPixel - 1) / bitsPerPixel);
+		synchronized(mCovers){
+			mCovers.add(new Object[]{Integer.valueOf(index), name, Long.valueOf(pixels), 
+					Long.valueOf(bits), Long.valueOf(touched), Long.valueOf(nanos)});
+		}
+		this.add(COVERS_PROCESSED, 1);
+		this.add(PIXELS_TOUCHED, touched);
+		this.add(mMode.equals("encode") ? BITS_EMBEDDED : BITS_EXTRACTED, bits);
+	}
+	
+	/**
+	 * Gets the CPU time this thread has used.
+	 *
+	 * @return The time in nanoseconds, or 0 if the JVM can't tell.
+	 */
+	public static long cpuTime(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : 0;
+	}
+	
+	/**
+	 * Writes everything recorded so far as JSON.
+	 *
+	 * @param file Where to write it.
+	 * @param completed Whether the run got to the end.
+	 * @throws IOException If the file could not be written.
+	 */
+	public void write(File file, boolean completed) throws IOException{
+		long wall = System.nanoTime() - mStartNanos;
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try{
+			out.println("{");
+			out.println("  \"mode\": " + quote(mMode) + ",");
+			out.println("  \"completed\": " + completed + ",");
+			out.println("  \"wall_ms\": " + millis(wall) + ",");
+			out.println("  \"phases\": {");
+			for(int p = 0; p < PHASE_NAMES.length; p++){
+				out.println("    " + quote(PHASE_NAMES[p]) + ": {\"count\": " + mPhaseCounts.get(p)
+						+ ", \"wall_ms\": " + millis(mPhaseWall.get(p)) 
+						+ ", \"cpu_ms\": " + millis(mPhaseCpu.get(p)) + "}"
+						+ (p + 1 < PHASE_NAMES.length ? "," : ""));
+			}
+			out.println("  },");
+			out.println("  \"counters\": {");
+			for(int c = 0; c < COUNTER_NAMES.length; c++){
+				out.println("    " + quote(COUNTER_NAMES[c]) + ": " + mCounters.get(c)
+						+ (c + 1 < COUNTER_NAMES.length ? "," : ""));
+			}
+			out.println("  },");
+			out.println("  \"covers\": [");
+			synchronized(mCovers){
+				for(int i = 0; i < mCovers.size(); i++){
+					Object[] c = mCovers.get(i);
+					long bits = ((Long) c[3]).longValue();
+					long nanos = ((Long) c[5]).longValue();
+					double rate = (nanos > 0) ? bits / 8.0 / (1024 * 1024) / (nanos / 1e9) : 0;
+					out.println("    {\"index\": " + c[0] + ", \"name\": " + quote((String) c[1])
+							+ ", \"pixels\": " + c[2] + ", \"bits\": " + bits
+							+ ", \"pixels_touched\": " + c[4] + ", \"wall_ms\": " + millis(nanos)
+							+ ", \"mb_per_s\": " + String.format("%.3f", rate) + "}"
+							+ (i + 1 < mCovers.size() ? "," : ""));
+				}
+			}
+			out.println("  ]");
+			out.println("}");
+		}finally{
+			out.close();
+		}
+	}
+	
+	private static String millis(long nanos){
+		return String.format("%.3f", nanos / 1e6);
+	}
+	
+	/**
+	 * Quotes a string for JSON.
+	 *
+	 * @param s The string.
+	 * @return The string in double quotes, escaped as needed.
+	 */
+	public static String quote(String s){
+		StringBuilder out = new StringBuilder("\"");
+		for(char c : s.toCharArray()){
+			if(c == '"' || c == '\\') out.append('\\').append(c);
+			else if(c < 0x20) out.append(String.format("\\u%04x", (int) c));
+			else out.append(c);
+		}
+		return out.append('"').toString();
+	}
+	
+	/**
+	 * Some work in a phase being timed.
+	 */
+	public class Span{
+		
+		private Span(int phase){
+			mPhase = phase;
+			mWall = System.nanoTime();
+			mCpu = cpuTime();
+		}
+		
+		/**
+		 * Stops timing and adds the time to the phase.
+		 */
+		public void end(){
+			addPhase(mPhase, 1, System.nanoTime() - mWall, cpuTime() - mCpu);
+		}
+		
+		private int mPhase;
+		private long mWall, mCpu;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The phases: reading covers, deriving keys, encrypting files,
+	 * hiding bits, writing covers, reading bits back and decrypting
+	 * files (which also writes them out).
+	 */
+	public static final int COVER_LOAD = 0, KEY_DERIVATION = 1, ENCRYPT = 2, 
+		EMBED = 3, COVER_WRITE = 4, EXTRACT = 5, DECRYPT = 6;
+	
+	private static final String[] PHASE_NAMES = {"cover_load", "key_derivation", 
+		"encrypt", "embed", "cover_write", "extract", "decrypt"};
+	
+	/**
+	 * The counters.
+	 */
+	public static final int BYTES_ENCRYPTED = 0, BYTES_DECRYPTED = 1, BITS_EMBEDDED = 2,
+		BITS_EXTRACTED = 3, PIXELS_TOUCHED = 4, COVERS_PROCESSED = 5;
+	
+	private static final String[] COUNTER_NAMES = {"bytes_encrypted", "bytes_decrypted",
+		"bits_embedded", "bits_extracted", "pixels_touched", "covers_processed"};
+	
+	private String mMode;
+	private long mStartNanos;
+	
+	private AtomicLongArray mPhaseCounts = new AtomicLongArray(PHASE_NAMES.length);
+	private AtomicLongArray mPhaseWall = new AtomicLongArray(PHASE_NAMES.length);
+	private AtomicLongArray mPhaseCpu = new AtomicLongArray(PHASE_NAMES.length);
+	private AtomicLongArray mCounters = new AtomicLongArray(COUNTER_NAMES.length);
+	
+	/**
+	 * Each cover recorded: its index, name, pixels, bits, pixels
+	 * touched and wall time.
+	 */
+	private List<Object[]> mCovers = new ArrayList<Object[]>();
+}
+//end of class.
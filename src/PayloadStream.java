@@ -0,0 +1,157 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The messages to hide, laid out as one flat stream of bytes.
+ * <P>
+ * Each message is its size (long), the length of its name (int), 
+ * the name and then the message itself.  The bytes come out in the
+ * order BitWriter.write would hide them (least significant bit
+ * first), with the message bodies already bit-reversed, so the
+ * stream can be cut up at any bit and each piece hidden on its own.
+ */
+public class PayloadStream{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new stream over the given messages.
+	 *
+	 * @param messages The messages, in the order they are hidden.
+	 */
+	public PayloadStream(List<InsertableMessage> messages){
+		mMessages = messages;
+		mCurrent = -1;
+		mHeader = new byte[0];
+		mHeaderPos = 0;
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Gets the number of bits needed to hide the given messages,
+	 * not counting the cover headers.
+	 *
+	 * @param messages The messages to hide.
+	 * @return The size of the stream in bits.
+	 */
+	public static long getBitCount(List<InsertableMessage> messages){
+		long bits = 0;
+		for(InsertableMessage message : messages)
+			bits += 64 + 32 + message.getName().length * 8L + message.getSize() * 8;
+		return bits;
+	}
+	
+	/**
+	 * Fills a range of bytes from the stream, only stopping short at
+	 * the end of the last message.
+	 *
+	 * @param b Where to put the bytes.
+	 * @param off The first byte to fill.
+	 * @param len The number of bytes wanted.
+	 * @return The number of bytes read, or -1 at the end.
+	 * @throws IOException If a message could not be read.
+	 */
+	public int read(byte[] b, int off, int len) throws IOException{
+		int done = 0;
+		while(done < len){
+			if(mHeaderPos < mHeader.length){
+				//still in the header of the current message
+				int n = Math.min(len - done, mHeader.length - mHeaderPos);
+				System.arraycopy(mHeader, mHeaderPos, b, off + done, n);
+				mHeaderPos += n;
+				done += n;
+			}else if(mCurrent >= 0 && !mMessages.get(mCurrent).isFinished()){
+				int n = mMessages.get(mCurrent).read(b, off + done, len - done);
+				for(int i = 0; i < n; i++)
+					b[off + done + i] = CoverBitStream.REVERSED[b[off + done + i] & 0xff];
+				if(n > 0)
+					done += n;
+			}else if(mCurrent + 1 < mMessages.size()){
+				this.startMessage(++mCurrent);
+			}else{
+				break;
+			}
+		}
+		return (done == 0 && len > 0) ? -1 : done;
+	}
+	
+	/**
+	 * Reads until the range is full.
+	 *
+	 * @param b Where to put the bytes.
+	 * @param off The first byte to fill.
+	 * @param len The number of bytes wanted.
+	 * @throws IOException If the stream ends first.
+	 */
+	public void readFully(byte[] b, int off, int len) throws IOException{
+		if(len > 0 && this.read(b, off, len) != len)
+			throw new IOException("Message stream ended early!");
+	}
+	
+	/**
+	 * Lays out the header of a message.
+	 *
+	 * @param index The message to start.
+	 */
+	private void startMessage(int index){
+		InsertableMessage message = mMessages.get(index);
+		byte[] name = message.getName();
+		long size = message.getSize();
+		
+		mHeader = new byte[8 + 4 + name.length];
+		for(int i = 0; i < 8; i++)
+			mHeader[i] = (byte)(size >>> (i * 8));
+		for(int i = 0; i < 4; i++)
+			mHeader[8 + i] = (byte)(name.length >>> (i * 8));
+		System.arraycopy(name, 0, mHeader, 12, name.length);
+		mHeaderPos = 0;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The messages being streamed.
+	 */
+	private List<InsertableMessage> mMessages;
+	
+	/**
+	 * The message currently being streamed.
+	 */
+	private int mCurrent;
+	
+	/**
+	 * The header of the current message, and how much of it
+	 * has been read.
+	 */
+	private byte[] mHeader;
+	private int mHeaderPos;
+}
+//end of class.
@@ -0,0 +1,345 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the rows of a PNG image a band at a time, from the top down.
+ * <P>
+ * Only the PNGs that ImageIO would read into a plain 3BYTE_BGR or
+ * 4BYTE_ABGR image can be read this way: 8 bit RGB or RGBA, not
+ * interlaced, with no colour profile or transparent colour.  For
+ * those, each band holds exactly the pixels ImageIO would give,
+ * without the whole image ever being in memory.
+ */
+public class PngRowReader{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Opens a PNG and reads everything up to its pixels.
+	 *
+	 * @param path The path to the image on disk.
+	 * @throws IOException If the file is not a PNG or could not be read.
+	 */
+	public PngRowReader(String path) throws IOException{
+		mIn = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(path), BUFFER_SIZE));
+		try{
+			if(mIn.readLong() != SIGNATURE)
+				throw new IOException("Not a PNG: " + path);
+			
+			int depth = 0, colour = 0, method = 0, interlace = 0;
+			mStreamable = true;
+			while(true){
+				int length = mIn.readInt();
+				int type = mIn.readInt();
+				if(type == IHDR){
+					mWidth = mIn.readInt();
+					mHeight = mIn.readInt();
+					depth = mIn.readUnsignedByte();
+					colour = mIn.readUnsignedByte();
+					method = mIn.readUnsignedByte() | mIn.readUnsignedByte();
+					interlace = mIn.readUnsignedByte();
+					skipFully(length - 13 + 4);
+				}else if(type == IDAT){
+					mChunkLeft = length;
+					break;
+				}else if(type == IEND){
+					throw new EOFException("No pixels in " + path);
+				}else{
+					//a colour profile or transparent colour changes what ImageIO gives
+					if(type == ICCP || type == TRNS)
+						mStreamable = false;
+					skipFully(length + 4);
+				}
+			}
+			
+			mStreamable &= depth == 8 && (colour == 2 || colour == 6)
+					&& method == 0 && interlace == 0;
+			mChannels = (colour == 6) ? 4 : 3;
+		}catch(IOException e){
+			mIn.close();
+			throw e;
+		}
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Gets the width of the image.
+	 */
+	public int getWidth(){
+		return mWidth;
+	}
+	
+	/**
+	 * Gets the height of the image.
+	 */
+	public int getHeight(){
+		return mHeight;
+	}
+	
+	/**
+	 * Whether the image has an alpha channel.
+	 */
+	public boolean hasAlpha(){
+		return mChannels == 4;
+	}
+	
+	/**
+	 * Whether the rows of this image can be read here.
+	 */
+	public boolean isStreamable(){
+		return mStreamable;
+	}
+	
+	/**
+	 * Gets the type of image the rows are read into: TYPE_3BYTE_BGR,
+	 * or TYPE_4BYTE_ABGR if the image has an alpha channel.
+	 */
+	public int getImageType(){
+		return this.hasAlpha() ? BufferedImage.TYPE_4BYTE_ABGR 
+				: BufferedImage.TYPE_3BYTE_BGR;
+	}
+	
+	/**
+	 * Reads the next rows into the top of a band image.
+	 *
+	 * @param band An image of getImageType, as wide as this one,
+	 * created with new BufferedImage.
+	 * @param rows The number of rows to read.
+	 * @throws IOException If the image could not be read or decompressed.
+	 */
+	public void readRows(BufferedImage band, int rows) throws IOException{
+		if(!mStreamable)
+			throw new IOException("This PNG can't be read a band at a time.");
+		if(mPixels == null){
+			mPixels = new InflaterInputStream(new IdatStream(), 
+					new Inflater(), BUFFER_SIZE);
+			mRow = new byte[mWidth * mChannels + 1];
+			mPrevious = new byte[mRow.length];
+		}
+		
+		byte[] data = ((DataBufferByte)band.getRaster().getDataBuffer()).getData();
+		int stride = mWidth * mChannels;
+		for(int r = 0; r < rows; r++){
+			readFully(mPixels, mRow);
+			this.unfilter();
+			
+			//RGB(A) in the file, (A)BGR in the band
+			int index = r * stride;
+			if(mChannels == 3){
+				for(int i = 1; i <= stride; i += 3, index += 3){
+					data[index] = mRow[i + 2];
+					data[index + 1] = mRow[i + 1];
+					data[index + 2] = mRow[i];
+				}
+			}else{
+				for(int i = 1; i <= stride; i += 4, index += 4){
+					data[index] = mRow[i + 3];
+					data[index + 1] = mRow[i + 2];
+					data[index + 2] = mRow[i + 1];
+					data[index + 3] = mRow[i];
+				}
+			}
+			
+			byte[] swap = mPrevious;
+			mPrevious = mRow;
+			mRow = swap;
+		}
+	}
+	
+	/**
+	 * Undoes the filter on the row just read, using the one before.
+	 *
+	 * @throws IOException If the filter type is unknown.
+	 */
+	private void unfilter() throws IOException{
+		byte[] row = mRow;
+		byte[] up = mPrevious;
+		int bpp = mChannels;
+		int end = row.length;
+		switch(row[0]){
+		case 0:
+			break;
+		case 1:
+			for(int i = 1 + bpp; i < end; i++)
+				row[i] += row[i - bpp];
+			break;
+		case 2:
+			for(int i = 1; i < end; i++)
+				row[i] += up[i];
+			break;
+		case 3:
+			for(int i = 1; i < end; i++){
+				int left = (i > bpp) ? row[i - bpp] & 0xff : 0;
+				row[i] += (left + (up[i] & 0xff)) >>> 1;
+			}
+			break;
+		case 4:
+			for(int i = 1; i < end; i++){
+				int a = (i > bpp) ? row[i - bpp] & 0xff : 0;
+				int b = up[i] & 0xff;
+				int c = (i > bpp) ? up[i - bpp] & 0xff : 0;
+				row[i] += paeth(a, b, c);
+			}
+			break;
+		default:
+			throw new IOException("Unknown PNG filter " + row[0]);
+		}
+	}
+	
+	/**
+	 * The Paeth predictor: whichever of left, up and up-left is
+	 * closest to left + up - upleft.
+	 */
+	static int paeth(int a, int b, int c){
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if(pa <= pb && pa <= pc)
+			return a;
+		return (pb <= pc) ? b : c;
+	}
+	
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException If the file could not be closed.
+	 */
+	public void close() throws IOException{
+		mIn.close();
+	}
+	
+	private void skipFully(long count) throws IOException{
+		while(count > 0){
+			long skipped = mIn.skip(count);
+			if(skipped <= 0){
+				mIn.readByte();
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+	
+	private static void readFully(InputStream in, byte[] b) throws IOException{
+		int off = 0;
+		while(off < b.length){
+			int count = in.read(b, off, b.length - off);
+			if(count < 0)
+				throw new EOFException("PNG ended early.");
+			off += count;
+		}
+	}
+	
+	/**
+	 * The compressed pixels, read straight out of one IDAT chunk
+	 * after another.
+	 */
+	private class IdatStream extends InputStream{
+		
+		public int read() throws IOException{
+			byte[] b = new byte[1];
+			return (this.read(b, 0, 1) < 0) ? -1 : b[0] & 0xff;
+		}
+		
+		public int read(byte[] b, int off, int len) throws IOException{
+			while(mChunkLeft == 0){
+				if(mDone)
+					return -1;
+				skipFully(4);
+				mChunkLeft = mIn.readInt();
+				if(mIn.readInt() != IDAT){
+					mChunkLeft = 0;
+					mDone = true;
+				}
+			}
+			int count = mIn.read(b, off, Math.min(len, mChunkLeft));
+			if(count < 0)
+				throw new EOFException("PNG ended early.");
+			mChunkLeft -= count;
+			return count;
+		}
+		
+		private boolean mDone;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The file, positioned inside the IDAT chunks once the header
+	 * has been read.
+	 */
+	private DataInputStream mIn;
+	
+	/**
+	 * The decompressed pixels.
+	 */
+	private InputStream mPixels;
+	
+	/**
+	 * Bytes left in the current IDAT chunk.
+	 */
+	private int mChunkLeft;
+	
+	private int mWidth, mHeight;
+	
+	/**
+	 * Bytes per pixel: 3 for RGB, 4 for RGBA.
+	 */
+	private int mChannels;
+	
+	private boolean mStreamable;
+	
+	/**
+	 * The row being read and the one above it, each with its
+	 * filter type in front.
+	 */
+	private byte[] mRow, mPrevious;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private static final long SIGNATURE = 0x89504e470d0a1a0aL;
+	
+	static final int IHDR = 0x49484452;
+	static final int IDAT = 0x49444154;
+	static final int IEND = 0x49454e44;
+	private static final int ICCP = 0x69434350;
+	private static final int TRNS = 0x74524e53;
+}
+//end of class.
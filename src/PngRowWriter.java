@@ -0,0 +1,521 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image a band of rows at a time, from the top down.
+ * <P>
+ * The rows are filtered and compressed as they come and written
+ * out in IDAT chunks, so the whole image never has to be in memory.
+ * Images are written as 8 bit RGB, or RGBA if they have alpha, the
+ * same as ImageIO writes the image types canWrite accepts.
+ * <P>
+ * Each row gets the filter that looks best on a sample of it,
+ * rather than trying every filter on every byte.  Given a pool, the
+ * filtered rows are cut into segments that are compressed on
+ * separate threads, each primed with the end of the segment before
+ * so hardly anything is lost, and joined back into one stream.
+ */
+public class PngRowWriter{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a PNG file and writes its header.
+	 *
+	 * @param path Where to write the image.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param alpha Whether the image has an alpha channel.
+	 * @param level The deflate level, from 0 (stored) to 9 (smallest).
+	 * @param pool Compresses segments of the image at once, or null
+	 * to compress everything on the calling thread.
+	 * @throws IOException If the file could not be written.
+	 */
+	public PngRowWriter(String path, int width, int height, boolean alpha,
+			int level, ForkJoinPool pool)
+	throws IOException{
+		mOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path), CHUNK_SIZE));
+		mWidth = width;
+		mChannels = alpha ? 4 : 3;
+		mLevel = level;
+		mPool = pool;
+		
+		mOut.writeLong(SIGNATURE);
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8;
+		header[9] = (byte)(alpha ? 6 : 2);
+		this.writeChunk(PngRowReader.IHDR, header, 0, header.length);
+		
+		mIdat = new IdatStream();
+		if(mPool == null){
+			mDeflater = new Deflater(level);
+			mPixels = new DeflaterOutputStream(mIdat, mDeflater, CHUNK_SIZE);
+		}else{
+			mSegment = new byte[SEGMENT_SIZE];
+			mAdler = new Adler32();
+			mPending = new LinkedList<ForkJoinTask<byte[]>>();
+			//a zlib header for the whole stream
+			mIdat.write(new byte[]{0x78, (byte)0x9c}, 0, 2);
+		}
+		mRaw = new byte[width * mChannels + 1];
+		mPrevious = new byte[mRaw.length];
+		mFiltered = new byte[mRaw.length];
+		mPixels32 = new int[width];
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Whether an image can be written here.  Other types are left
+	 * to ImageIO, which may write them at another bit depth.
+	 *
+	 * @param image The image to write.
+	 * @return True for INT_RGB, INT_ARGB, 3BYTE_BGR and 4BYTE_ABGR.
+	 */
+	public static boolean canWrite(BufferedImage image){
+		int type = image.getType();
+		return type == BufferedImage.TYPE_INT_RGB
+			|| type == BufferedImage.TYPE_INT_ARGB
+			|| type == BufferedImage.TYPE_3BYTE_BGR
+			|| type == BufferedImage.TYPE_4BYTE_ABGR;
+	}
+	
+	/**
+	 * Writes the rows at the top of an image.
+	 *
+	 * @param band An image canWrite accepts, as wide as this one.
+	 * @param rows The number of rows to write.
+	 * @throws IOException If the file could not be written.
+	 */
+	public void writeRows(BufferedImage band, int rows) throws IOException{
+		byte[] data = packedBytes(band, mChannels);
+		int stride = mWidth * mChannels;
+		for(int r = 0; r < rows; r++){
+			//(A)BGR in the band, RGB(A) in the file
+			int index = r * stride;
+			if(data == null){
+				band.getRGB(0, r, mWidth, 1, mPixels32, 0, mWidth);
+				for(int x = 0, i = 1; x < mWidth; x++, i += mChannels){
+					int argb = mPixels32[x];
+					mRaw[i] = (byte)(argb >> 16);
+					mRaw[i + 1] = (byte)(argb >> 8);
+					mRaw[i + 2] = (byte)argb;
+					if(mChannels == 4)
+						mRaw[i + 3] = (byte)(argb >>> 24);
+				}
+			}else if(mChannels == 3){
+				for(int i = 1; i <= stride; i += 3, index += 3){
+					mRaw[i] = data[index + 2];
+					mRaw[i + 1] = data[index + 1];
+					mRaw[i + 2] = data[index];
+				}
+			}else{
+				for(int i = 1; i <= stride; i += 4, index += 4){
+					mRaw[i] = data[index + 3];
+					mRaw[i + 1] = data[index + 2];
+					mRaw[i + 2] = data[index + 1];
+					mRaw[i + 3] = data[index];
+				}
+			}
+			
+			this.writeFiltered(this.filter());
+			
+			byte[] swap = mPrevious;
+			mPrevious = mRaw;
+			mRaw = swap;
+		}
+	}
+	
+	/**
+	 * Gets the bytes behind an image if they are laid out exactly
+	 * as a new 3BYTE_BGR or 4BYTE_ABGR image's would be.
+	 *
+	 * @return The bytes, or null if the image has to go through getRGB.
+	 */
+	private static byte[] packedBytes(BufferedImage image, int channels){
+		Raster raster = image.getRaster();
+		if(!(raster.getDataBuffer() instanceof DataBufferByte)
+				|| !(raster.getSampleModel() instanceof ComponentSampleModel)
+				|| raster.getSampleModelTranslateX() != 0
+				|| raster.getSampleModelTranslateY() != 0
+				|| raster.getDataBuffer().getOffset() != 0)
+			return null;
+		ComponentSampleModel model = (ComponentSampleModel)raster.getSampleModel();
+		int[] bands = model.getBandOffsets();
+		int[] expected = (channels == 3) ? new int[]{2, 1, 0} : new int[]{3, 2, 1, 0};
+		if(model.getPixelStride() != channels 
+				|| model.getScanlineStride() != image.getWidth() * channels
+				|| !Arrays.equals(bands, expected))
+			return null;
+		return ((DataBufferByte)raster.getDataBuffer()).getData();
+	}
+	
+	/**
+	 * Picks a filter for the current row by trying every filter on a
+	 * sample of its bytes and keeping the one with the smallest sum
+	 * of absolute differences, then filters the row with it.  Stored
+	 * images are not filtered at all.
+	 *
+	 * @return The filtered row, with its filter type in front.
+	 */
+	private byte[] filter(){
+		byte[] raw = mRaw;
+		byte[] up = mPrevious;
+		byte[] out = mFiltered;
+		int bpp = mChannels;
+		int end = raw.length;
+		
+		int best = 0;
+		if(mLevel > 0){
+			long[] sums = new long[5];
+			for(int i = 1; i < end; i += SAMPLE_STEP){
+				int x = raw[i] & 0xff;
+				int a = (i > bpp) ? raw[i - bpp] & 0xff : 0;
+				int b = up[i] & 0xff;
+				int c = (i > bpp) ? up[i - bpp] & 0xff : 0;
+				sums[0] += Math.abs((byte)x);
+				sums[1] += Math.abs((byte)(x - a));
+				sums[2] += Math.abs((byte)(x - b));
+				sums[3] += Math.abs((byte)(x - ((a + b) >>> 1)));
+				sums[4] += Math.abs((byte)(x - PngRowReader.paeth(a, b, c)));
+			}
+			for(int f = 1; f < 5; f++){
+				if(sums[f] < sums[best])
+					best = f;
+			}
+		}
+		
+		out[0] = (byte)best;
+		switch(best){
+		case 0:
+			System.arraycopy(raw, 1, out, 1, end - 1);
+			break;
+		case 1:
+			System.arraycopy(raw, 1, out, 1, bpp);
+			for(int i = 1 + bpp; i < end; i++)
+				out[i] = (byte)(raw[i] - raw[i - bpp]);
+			break;
+		case 2:
+			for(int i = 1; i < end; i++)
+				out[i] = (byte)(raw[i] - up[i]);
+			break;
+		case 3:
+			for(int i = 1; i < end; i++){
+				int a = (i > bpp) ? raw[i - bpp] & 0xff : 0;
+				out[i] = (byte)(raw[i] - (((up[i] & 0xff) + a) >>> 1));
+			}
+			break;
+		default:
+			for(int i = 1; i < end; i++){
+				int a = (i > bpp) ? raw[i - bpp] & 0xff : 0;
+				int c = (i > bpp) ? up[i - bpp] & 0xff : 0;
+				out[i] = (byte)(raw[i] - PngRowReader.paeth(a, up[i] & 0xff, c));
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Sends a filtered row to be compressed.
+	 *
+	 * @throws IOException If the file could not be written.
+	 */
+	private void writeFiltered(byte[] row) throws IOException{
+		if(mPool == null){
+			mPixels.write(row);
+			return;
+		}
+		mAdler.update(row);
+		int off = 0;
+		while(off < row.length){
+			int n = Math.min(row.length - off, mSegment.length - mFill);
+			System.arraycopy(row, off, mSegment, mFill, n);
+			mFill += n;
+			off += n;
+			if(mFill == mSegment.length)
+				this.compressSegment(false);
+		}
+	}
+	
+	/**
+	 * Hands the segment gathered so far to the pool, writing out the
+	 * oldest ones once enough are on the way.
+	 *
+	 * @param last Whether this is the end of the image.
+	 * @throws IOException If the file could not be written.
+	 */
+	private void compressSegment(boolean last) throws IOException{
+		final byte[] data = Arrays.copyOf(mSegment, mFill);
+		final byte[] dictionary = mDictionary;
+		final boolean finish = last;
+		final int level = mLevel;
+		
+		//the next segment starts with the end of this one as its window
+		int keep = Math.min(mFill, WINDOW_SIZE);
+		mDictionary = Arrays.copyOfRange(mSegment, mFill - keep, mFill);
+		mFill = 0;
+		
+		if(mPending.size() >= mPool.getParallelism() * 2)
+			this.writeSegment();
+		mPending.add(mPool.submit(new Callable<byte[]>(){
+			public byte[] call(){
+				return compress(data, dictionary, level, finish);
+			}
+		}));
+	}
+	
+	/**
+	 * Waits for the oldest segment and writes it out.
+	 *
+	 * @throws IOException If the file could not be written.
+	 */
+	private void writeSegment() throws IOException{
+		byte[] compressed = mPending.removeFirst().join();
+		mIdat.write(compressed, 0, compressed.length);
+	}
+	
+	/**
+	 * Compresses one segment as raw deflate data.  All but the last
+	 * end on a byte boundary with a sync flush, so the segments can
+	 * simply be put one after the other.
+	 */
+	private static byte[] compress(byte[] data, byte[] dictionary, int level, boolean last){
+		Deflater deflater = new Deflater(level, true);
+		try{
+			if(dictionary != null && dictionary.length > 0)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buffer = new byte[CHUNK_SIZE];
+			if(last){
+				deflater.finish();
+				while(!deflater.finished()){
+					int count = deflater.deflate(buffer);
+					out.write(buffer, 0, count);
+				}
+			}else{
+				int count;
+				do{
+					count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					out.write(buffer, 0, count);
+				}while(count == buffer.length);
+			}
+			return out.toByteArray();
+		}finally{
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Finishes compressing, ends the image and closes the file.
+	 *
+	 * @throws IOException If the file could not be written.
+	 */
+	public void close() throws IOException{
+		try{
+			if(mPool == null){
+				mPixels.close();
+			}else{
+				this.compressSegment(true);
+				while(!mPending.isEmpty())
+					this.writeSegment();
+				int adler = (int)mAdler.getValue();
+				mIdat.write(new byte[]{(byte)(adler >>> 24), (byte)(adler >>> 16),
+						(byte)(adler >>> 8), (byte)adler}, 0, 4);
+				mIdat.close();
+			}
+			this.writeChunk(PngRowReader.IEND, new byte[0], 0, 0);
+		}finally{
+			if(mDeflater != null)
+				mDeflater.end();
+			mOut.close();
+		}
+	}
+	
+	/**
+	 * Writes one chunk: its length, type, data and CRC.
+	 */
+	private void writeChunk(int type, byte[] data, int off, int len) throws IOException{
+		byte[] name = new byte[4];
+		putInt(name, 0, type);
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, off, len);
+		mOut.writeInt(len);
+		mOut.write(name);
+		mOut.write(data, off, len);
+		mOut.writeInt((int)crc.getValue());
+	}
+	
+	private static void putInt(byte[] b, int off, int value){
+		b[off] = (byte)(value >>> 24);
+		b[off + 1] = (byte)(value >>> 16);
+		b[off + 2] = (byte)(value >>> 8);
+		b[off + 3] = (byte)value;
+	}
+	
+	/**
+	 * Gathers compressed pixels into IDAT chunks.
+	 */
+	private class IdatStream extends OutputStream{
+		
+		public void write(int b) throws IOException{
+			this.write(new byte[]{(byte)b}, 0, 1);
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException{
+			while(len > 0){
+				int n = Math.min(len, mChunk.length - mFill);
+				System.arraycopy(b, off, mChunk, mFill, n);
+				mFill += n;
+				off += n;
+				len -= n;
+				if(mFill == mChunk.length)
+					this.flush();
+			}
+		}
+		
+		public void flush() throws IOException{
+			if(mFill > 0)
+				writeChunk(PngRowReader.IDAT, mChunk, 0, mFill);
+			mFill = 0;
+		}
+		
+		public void close() throws IOException{
+			this.flush();
+		}
+		
+		private byte[] mChunk = new byte[CHUNK_SIZE];
+		private int mFill;
+	}
+	
+	
+	//VARIABLES
+	
+	private DataOutputStream mOut;
+	
+	/**
+	 * Turns the compressed stream into IDAT chunks.
+	 */
+	private IdatStream mIdat;
+	
+	/**
+	 * Compresses the filtered rows when there is no pool.
+	 */
+	private DeflaterOutputStream mPixels;
+	
+	private Deflater mDeflater;
+	
+	private int mWidth;
+	
+	/**
+	 * Bytes per pixel: 3 for RGB, 4 for RGBA.
+	 */
+	private int mChannels;
+	
+	private int mLevel;
+	
+	private ForkJoinPool mPool;
+	
+	/**
+	 * The filtered rows gathered for the next segment, and how
+	 * many bytes of it are filled.
+	 */
+	private byte[] mSegment;
+	private int mFill;
+	
+	/**
+	 * The end of the last segment, which the next one may refer back to.
+	 */
+	private byte[] mDictionary;
+	
+	/**
+	 * Segments being compressed, oldest first.
+	 */
+	private LinkedList<ForkJoinTask<byte[]>> mPending;
+	
+	/**
+	 * The checksum of everything compressed, for the end of the stream.
+	 */
+	private Adler32 mAdler;
+	
+	/**
+	 * The row being written and the one above it, each with a byte
+	 * spare in front for the filter type.
+	 */
+	private byte[] mRaw, mPrevious;
+	
+	/**
+	 * The current row once filtered.
+	 */
+	private byte[] mFiltered;
+	
+	/**
+	 * A row of pixels for images read through getRGB.
+	 */
+	private int[] mPixels32;
+	
+	/**
+	 * The same compression level ImageIO uses by default.
+	 */
+	public static final int DEFAULT_LEVEL = 4;
+	
+	/**
+	 * How far apart the bytes are that filters are tried on.  Odd,
+	 * so every channel gets sampled.
+	 */
+	private static final int SAMPLE_STEP = 7;
+	
+	private static final int SEGMENT_SIZE = 256 * 1024;
+	private static final int WINDOW_SIZE = 32 * 1024;
+	private static final int CHUNK_SIZE = 64 * 1024;
+	
+	private static final long SIGNATURE = 0x89504e470d0a1a0aL;
+}
+//end of class.
@@ -0,0 +1,67 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+/**
+ * Told how an encode or decode run by a StegoEngine is going.
+ * <P>
+ * Progress is counted in bits of the hidden files, up to the total
+ * given to setMax.  Some of the work is done on other threads, so
+ * these may be called from threads other than the one that started
+ * the run, though never from two at once for the same run.
+ */
+public interface ProgressListener{
+	
+	/**
+	 * Called when the run moves on to a new step, such as the next
+	 * cover.
+	 *
+	 * @param label What is being worked on.
+	 */
+	public void setLabel(String label);
+	
+	/**
+	 * Called once the total amount of work is known.
+	 *
+	 * @param number The total.
+	 */
+	public void setMax(long number);
+	
+	/**
+	 * Called as work is done.
+	 *
+	 * @param number How much more has been done.
+	 */
+	public void addValue(long number);
+	
+	/**
+	 * Called when decoding with a password the covers weren't encoded
+	 * with, for another one to try.
+	 *
+	 * @param message Why a new password is needed.
+	 * @return The password to try, or null to give up.
+	 */
+	public String askPassword(String message);
+}
+//end of interface.
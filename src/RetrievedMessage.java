@@ -25,71 +25,130 @@ package invisibleinktoolkit.stego;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.FileNotFoundException;
-import javax.swing.JOptionPane;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
 
 import my.crypto.Cryptor;
+import my.crypto.MessageCipher;
 
 /**
  * A retrieved message.
  * <P>
  * A retrieved message is any sort of file, to be written
  * to disk as it is retrieved from a steganographic object.
+ * <P>
+ * Bytes are decrypted as they arrive and written out through a
+ * buffer, so the file starts landing on disk straight away and
+ * memory use does not depend on its size.  The payload version
+ * from the image header says how the file was encrypted.
+ * <P>
+ * The file is written beside its real name and only moved there
+ * once all of it has been decrypted and checked, so a file that
+ * could not be retrieved never replaces one that was already there.
  *
  * @author Kathryn Hempstalk.
  */
 public class RetrievedMessage{
 	
-	public RetrievedMessage(String outdir, byte[] filename, String password)
-	throws FileNotFoundException, SecurityException{
+	/**
+	 * Starts writing out a retrieved file.
+	 *
+	 * @param outdir The directory to write it in.
+	 * @param filename The encrypted name of the file.
+	 * @param password The password it was encrypted with.
+	 * @param version How it was encrypted, from the image header.
+	 * @throws IOException If the name could not be decrypted or
+	 * the file could not be created.
+	 */
+	public RetrievedMessage(String outdir, byte[] filename, String password, int version)
+	throws IOException, SecurityException{
 		
+		mEvent = new FileDecryptEvent();
+		mEvent.begin();
 		mPassword = password;
 		mName = filename;
+		mVersion = version;
 
 		//try to decrypt the filename
 		try {
-			mName = Cryptor.decrypt(mName, mPassword);
+			mName = Cryptor.decrypt(mName, mPassword, version);
+			mCipher = Cryptor.getDecryptor(mPassword, version);
 		}
 		catch (Exception e) {
-			JOptionPane.showMessageDialog(null, 
-										  "Could not be decrypted. Please report this bug.",
-										  "Error!",
-										  JOptionPane.ERROR_MESSAGE);
-			System.exit(1);
+			throw new DecryptException("The name of a hidden file could not be decrypted.", e);
 		}
 		
-		mRetrievedMessage = new ByteArrayOutputStream();
 		mPath = outdir + "/" + new String(mName);
+		mTemp = File.createTempFile("firesteg", ".part", new File(mPath).getAbsoluteFile().getParentFile());
+		mChannel = new FileOutputStream(mTemp).getChannel();
+		mOutput = ByteBuffer.allocate(BUFFER_SIZE);
 		mIsFinished = false;
-		mBitCount = 0;
-		mBuffer = 0;
 	}
 	
-	public void setNext(boolean bit) throws IOException{
-		
-		//check file hasn't been closed
+	/**
+	 * Decrypts and writes out a range of retrieved bytes.
+	 *
+	 * @param b The bytes that were retrieved.
+	 * @param off The first byte to write.
+	 * @param len The number of bytes to write.
+	 * @throws IOException If the file has been closed.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException{
 		if(mIsFinished)
 			throw new IOException
 			("File has finished writing!");
-		//set the new bit
-		int newbit = 0x0;
-		if(bit) newbit = 0x1;
-		//change the buffer and increment count
-		mBuffer = mBuffer << 1 | newbit;
-		mBitCount++;
 		
-		//if the buffer is full, write it out
-		if(mBitCount == 8){
+		//decrypt a buffer's worth at a time
+		while(len > 0){
+			int n = Math.min(len, BUFFER_SIZE / 2);
+			this.makeRoom(mCipher.getOutputSize(n));
+			try {
+				int count = mCipher.update(b, off, n, mOutput.array(), mOutput.position());
+				mOutput.position(mOutput.position() + count);
+			}
+			catch (Exception e) {
+				this.fail(e);
+			}
+			off += n;
+			len -= n;
+			mBytesIn += n;
+		}
+	}
+	
+	/**
+	 * Makes sure the buffer can take the given number of bytes,
+	 * writing it out or growing it as needed.
+	 *
+	 * @param count The number of bytes about to go in.
+	 * @throws IOException If the buffer could not be written.
+	 */
+	private void makeRoom(int count) throws IOException{
+		if(mOutput.remaining() < count)
 			this.writeBuffer();
-		}	    
+		if(mOutput.capacity() < count)
+			mOutput = ByteBuffer.allocate(count);
+	}
+	
+	/**
+	 * Lets the file be decrypted on a pool of threads, several
+	 * chunks at a time.  Must be called before the first write.
+	 *
+	 * @param pool The pool to use, or null for this thread only.
+	 */
+	public void setPool(ForkJoinPool pool){
+		mCipher.setPool(pool);
 	}
 	
 	private void writeBuffer() throws IOException{
-		mRetrievedMessage.write(mBuffer);
-		mBitCount = 0;
-		mBuffer = 0;
+		mOutput.flip();
+		mBytesOut += mOutput.remaining();
+		while(mOutput.hasRemaining())
+			mChannel.write(mOutput);
+		mOutput.clear();
 	}
 	
 	public byte[] getName(){		
@@ -104,41 +163,88 @@ public class RetrievedMessage{
 		return mPath;
 	}
 	
+	/**
+	 * Finishes decrypting the file and moves it to its real name.
+	 *
+	 * @throws IOException If the file could not be decrypted or
+	 * written, in which case nothing is left behind.
+	 */
 	public void close() throws IOException{
-		//check there isn't something left to write
-		if(mBitCount > 0){
-			//write it
-			int left = 8 - mBitCount;
-			mBuffer = mBuffer << left;
+		mIsFinished = true;
+		try {
+			//finish decrypting the file
+			try {
+				this.makeRoom(mCipher.getOutputSize(0));
+				int count = mCipher.doFinal(mOutput.array(), mOutput.position());
+				mOutput.position(mOutput.position() + count);
+			}
+			catch (Exception e) {
+				this.fail(e);
+			}
+			
+			//close it all off
 			this.writeBuffer();
+			mChannel.close();
+			Files.move(mTemp.toPath(), new File(mPath).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			mSaved = true;
+		}
+		finally {
+			this.discard();
 		}
-		//close it all off
-		mRetrievedMessage.close();
-		mIsFinished = true;
-		
-		byte[] data = mRetrievedMessage.toByteArray();
 		
-		//try to decrypt the file
-		try {				
-			byte[] plaintext = Cryptor.decrypt(data, mPassword);
-			
-			FileOutputStream outputStream = new FileOutputStream(mPath);
-			outputStream.write(plaintext);
+		mEvent.end();
+		if(mEvent.shouldCommit()){
+			mEvent.path = mPath;
+			mEvent.bytesIn = mBytesIn;
+			mEvent.bytesOut = mBytesOut;
+			mEvent.version = mVersion;
+			mEvent.commit();
 		}
-		catch (Exception e) {
-			JOptionPane.showMessageDialog(null, 
-										  "Could not be decrypted. Please report this bug.",
-										  "Error!",
-										  JOptionPane.ERROR_MESSAGE);
-			System.exit(1);
+	}
+	
+	/**
+	 * Gives up on the file, closing it and removing what was written
+	 * of it.  Does nothing once the file has been closed.
+	 */
+	public void discard(){
+		if(mSaved)
+			return;
+		mIsFinished = true;
+		try {
+			mChannel.close();
+		}
+		catch (IOException e) {
 		}
+		mTemp.delete();
 	}
 	
-	private ByteArrayOutputStream mRetrievedMessage;
+	/**
+	 * Gives up on a file that could not be decrypted, removing
+	 * what was written of it.
+	 *
+	 * @param cause Why it could not be decrypted.
+	 * @throws DecryptException Always.
+	 */
+	private void fail(Exception cause) throws DecryptException{
+		this.discard();
+		throw new DecryptException(new String(mName) + " could not be decrypted.", cause);
+	}
+	
+	/**
+	 * The size of the buffer decrypted bytes are written through.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private FileChannel mChannel;
+	private MessageCipher mCipher;
+	private ByteBuffer mOutput;
 	private boolean mIsFinished;
-	private int mBitCount;
-	private int mBuffer;
 	private String mPath;
+	private File mTemp;
+	private boolean mSaved;
 	private String mPassword;	
 	private byte[] mName;
+	private int mVersion;
+	private long mBytesIn, mBytesOut;
+	private FileDecryptEvent mEvent;
 }
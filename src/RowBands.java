@@ -0,0 +1,137 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hides or reads a run of bits in one cover, split into bands of rows
+ * that are worked on by separate threads.
+ * <P>
+ * Pixels are visited row by row, so a band of rows is a contiguous
+ * run of bits.  When hiding, bands are cut on row boundaries so no
+ * two threads ever write the same pixel.  When reading, bands are cut
+ * so each one fills whole bytes of the output.
+ */
+class RowBands extends RecursiveAction{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new task over a run of bits in a cover.
+	 *
+	 * @param cover The cover to work on.
+	 * @param bitsPerLayer The number of low bits used in each layer.
+	 * @param first The position of the first bit in the cover.
+	 * @param count The number of bits.
+	 * @param data The bits to hide, or where to put the bits read.
+	 * @param dataFirst The index of the bit in data matching first.
+	 * @param hide True to hide the bits, false to read them.
+	 */
+	RowBands(CoverImage cover, int bitsPerLayer, long first, long count,
+			byte[] data, long dataFirst, boolean hide){
+		mCover = cover;
+		mBitsPerLayer = bitsPerLayer;
+		mFirst = first;
+		mCount = count;
+		mData = data;
+		mDataFirst = dataFirst;
+		mHide = hide;
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Splits the run in two until it is small enough, then does it.
+	 */
+	protected void compute(){
+		long split = mFirst + mCount / 2;
+		if(mHide){
+			//back to the start of a row
+			long rowbits = (long)mCover.getWidth() * 3 * mBitsPerLayer;
+			split -= split % rowbits;
+		}else{
+			//back to a whole byte of output
+			split -= (split - mFirst) & 0x7;
+		}
+		
+		if(mCount <= BAND_BITS || split <= mFirst){
+			this.run();
+			return;
+		}
+		
+		long left = split - mFirst;
+		invokeAll(new RowBands(mCover, mBitsPerLayer, mFirst, left, 
+						mData, mDataFirst, mHide),
+				new RowBands(mCover, mBitsPerLayer, split, mCount - left,
+						mData, mDataFirst + left, mHide));
+	}
+	
+	/**
+	 * Does a single band on this thread.
+	 */
+	private void run(){
+		try{
+			if(mHide){
+				BitWriter writer = new BitWriter(Collections.singletonList(mCover), null);
+				writer.startCover(0, mBitsPerLayer);
+				writer.seek(mFirst);
+				writer.writeBits(mData, mDataFirst, mCount);
+				writer.close();
+			}else{
+				BitReader reader = new BitReader(Collections.singletonList(mCover), null);
+				reader.startCover(0, mBitsPerLayer);
+				reader.seek(mFirst);
+				int off = (int)(mDataFirst >>> 3);
+				long whole = mCount >>> 3;
+				reader.read(mData, off, (int)whole);
+				if((mCount & 0x7) != 0)
+					mData[off + (int)whole] = (byte)reader.readBits((int)(mCount & 0x7));
+			}
+		}catch(IOException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * Runs no longer than this are done on one thread.
+	 */
+	static final long BAND_BITS = 1 << 20;
+	
+	private CoverImage mCover;
+	private int mBitsPerLayer;
+	private long mFirst;
+	private long mCount;
+	private byte[] mData;
+	private long mDataFirst;
+	private boolean mHide;
+	private static final long serialVersionUID = 1L;
+}
+//end of class.
@@ -0,0 +1,192 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Hides files in cover images and reads them back out.
+ * <P>
+ * Each call to encode or decode is a run of its own, with nothing
+ * in common with any other but the engine's pool of threads, so one
+ * engine can be used from any number of threads at once.  The pool is
+ * made the first time a run asks for more than one thread, and kept so
+ * later runs find its threads already started.  A run asking for more
+ * threads than the engine allows gets as many as it allows, so however
+ * many runs there are, and whatever they ask for, the engine never
+ * starts more threads than that.
+ * <P>
+ * Covers are read, and files written, as they are needed, so memory
+ * use depends on the size of the covers rather than the files.
+ */
+public class StegoEngine{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new engine that runs on at most as many threads as
+	 * there are processors.
+	 */
+	public StegoEngine(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a new engine that runs on at most the given number of
+	 * threads.
+	 *
+	 * @param maxThreads The most threads any run gets.
+	 */
+	public StegoEngine(int maxThreads){
+		mMaxThreads = Math.max(1, maxThreads);
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Hides the files in a request in its covers, and writes the
+	 * filled covers out.
+	 *
+	 * @param request What to hide, and where.
+	 * @param listener Told how the run is going, or null.
+	 * @return The covers written, in the order they were given.
+	 * @throws StegoException If the request is missing something or
+	 * the files don't fit.
+	 * @throws Exception If a file or cover could not be read, encrypted
+	 * or written.
+	 */
+	public List<File> encode(EncodeRequest request, ProgressListener listener) throws Exception{
+		int threads = this.clamp(request.getThreads());
+		return new StegoOperation(request, threads, this.getPool(threads), 
+				this.orQuiet(listener)).encode(request);
+	}
+	
+	/**
+	 * Reads the files hidden in the covers of a request, and writes
+	 * them out.
+	 *
+	 * @param request Where to read them from, and where to write them.
+	 * @param listener Told how the run is going, and asked for another
+	 * password if the request's is wrong; or null.
+	 * @return The files written, in the order they were hidden.
+	 * @throws StegoException If the request is missing something, the
+	 * covers don't hold a full set of files, or the password is wrong.
+	 * @throws DecryptException If a file could not be decrypted.
+	 * @throws Exception If a cover could not be read or a file written.
+	 */
+	public List<File> decode(DecodeRequest request, ProgressListener listener) throws Exception{
+		int threads = this.clamp(request.getThreads());
+		return new StegoOperation(request, threads, this.getPool(threads), 
+				this.orQuiet(listener)).decode(request);
+	}
+	
+	/**
+	 * Stops the engine's threads once the runs using them are done.
+	 * The engine can't be used after this.
+	 */
+	public synchronized void shutdown(){
+		if(mPool != null)
+			mPool.shutdown();
+		mPool = null;
+		mShutdown = true;
+	}
+	
+	/**
+	 * Gets the most threads any run gets.
+	 *
+	 * @return The number of threads.
+	 */
+	public int getMaxThreads(){
+		return mMaxThreads;
+	}
+	
+	/**
+	 * Cuts the number of threads a run asks for down to what the
+	 * engine allows.
+	 *
+	 * @param threads The number of threads asked for.
+	 * @return The number the run gets, at least one.
+	 */
+	private int clamp(int threads){
+		return Math.max(1, Math.min(threads, mMaxThreads));
+	}
+	
+	/**
+	 * Gets the pool for a run, making it the first time a run needs
+	 * it.  Every run shares the one pool, which is as big as the most
+	 * threads a run gets; a run asking for fewer keeps fewer of its
+	 * covers going at once.
+	 *
+	 * @param threads The number of threads the run gets.
+	 * @return The pool, or null for one thread.
+	 */
+	private synchronized ForkJoinPool getPool(int threads){
+		if(mShutdown)
+			throw new IllegalStateException("The engine has been shut down");
+		if(threads <= 1)
+			return null;
+		if(mPool == null)
+			mPool = new ForkJoinPool(mMaxThreads);
+		return mPool;
+	}
+	
+	/**
+	 * Stands in for a missing listener with one that ignores
+	 * everything, and never has another password.
+	 */
+	private ProgressListener orQuiet(ProgressListener listener){
+		if(listener != null)
+			return listener;
+		return new ProgressListener(){
+			public void setLabel(String label){
+			}
+			public void setMax(long number){
+			}
+			public void addValue(long number){
+			}
+			public String askPassword(String message){
+				return null;
+			}
+		};
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The number of bits at the start of every cover that hold its
+	 * header: the bits per layer and version, then the password
+	 * checker, file count, total size, cover count and cover order.
+	 * The first int is always one bit a layer, so takes 8 ints' worth.
+	 */
+	public static final int HEADER_BITS = 8*32 + 2*64 + 3*32;
+	
+	private final int mMaxThreads;
+	private ForkJoinPool mPool;
+	private boolean mShutdown;
+}
+//end of class.
@@ -0,0 +1,88 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+/**
+ * Thrown when a StegoEngine can't do what it was asked, because of
+ * the request itself or the covers it was given.
+ * <P>
+ * The reason says which, so callers can tell them apart without
+ * reading the message.
+ */
+public class StegoException extends Exception{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new exception.
+	 *
+	 * @param reason One of the reasons, such as NO_ROOM.
+	 * @param message What went wrong, fit to show to the user.
+	 */
+	public StegoException(int reason, String message){
+		super(message);
+		mReason = reason;
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Gets why the request failed.
+	 *
+	 * @return One of the reasons, such as NO_ROOM.
+	 */
+	public int getReason(){
+		return mReason;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * Something the request needs is missing.
+	 */
+	public static final int BAD_REQUEST = 1;
+	
+	/**
+	 * The files don't fit in the covers.
+	 */
+	public static final int NO_ROOM = 2;
+	
+	/**
+	 * The covers hold nothing, or some are missing, or they don't
+	 * belong together.
+	 */
+	public static final int NOT_ENCODED = 3;
+	
+	/**
+	 * The covers weren't encoded with the password, and no other
+	 * password was given.
+	 */
+	public static final int WRONG_PASSWORD = 4;
+	
+	private int mReason;
+	private static final long serialVersionUID = 1L;
+}
+//end of class.
@@ -0,0 +1,699 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+
+import invisibleinktoolkit.util.Metrics;
+import my.crypto.Cryptor;
+
+//One encode or decode run by a StegoEngine. Everything a run keeps is here, so runs
+//done at the same time never see each other's; only the engine's pool is shared.
+//A run is used once and thrown away.
+
+class StegoOperation {
+	
+	public StegoOperation(StegoRequest request, int threads, ForkJoinPool threadPool, ProgressListener progress) {
+		outputDirectory = request.getOutputDirectory();
+		password = request.getPassword();
+		threadCount = threads;
+		pool = threadPool;
+		listener = progress;
+		metrics = request.getMetrics();
+		if (metrics == null) metrics = new Metrics(request instanceof EncodeRequest ? "encode" : "decode");
+	}
+	
+	//Hides the files in the covers and writes the covers out, returning where they were written.
+	
+	public List<File> encode(EncodeRequest request) throws Exception {
+		if (request.getCovers().size() < 1 || request.getFiles().size() < 1 || outputDirectory == null) {
+			throw new StegoException(StegoException.BAD_REQUEST, "To encode, you must select at least one file and cover image.");
+		}
+		if (password == null) throw new StegoException(StegoException.BAD_REQUEST, "To encode, you must give a password.");
+		loadCovers(request, true, request.getStream() ? 0 : STREAM_PIXELS, request.getLevel());
+		saved = new boolean[imageList.size()];
+		
+		listener.setLabel("Initializing...");
+		
+		InsertableMessage tempFile;
+		
+		//Create the list of files to be hidden, all keyed from one salt so the key is only derived once
+		fileList = new ArrayList<InsertableMessage>();
+		byte[] salt = Cryptor.newSalt(Cryptor.VERSION);
+		try {
+			for ( int i=0; i<request.getFiles().size(); i++ ) {
+				tempFile = new InsertableMessage(request.getFiles().get(i), request.shouldDeleteFile(i), password, salt);
+				totalFileSize = totalFileSize + tempFile.getSize() * 8 + tempFile.getName().length * 8 + sizeOfFileMetadata;
+				fileList.add(tempFile);
+			}
+			
+			listener.setMax(totalFileSize);
+			
+			//Give up if the cover images don't have enough room
+			if (pixelCount * 3 * 8 - sizeOfImageMetadata * imageList.size() < totalFileSize) {
+				throw new StegoException(StegoException.NO_ROOM, "Not enough room to hide.");
+			}
+			
+			//Determine the smallest number of bits we can write to
+			bitNumber = 7;
+			while (bitNumber > 0 && pixelCount * 3 * bitNumber - sizeOfImageMetadata * imageList.size() > totalFileSize) {
+				bitNumber = bitNumber - 1;
+			}
+			
+			//Work out how many covers the files will reach; a cover whose share starts
+			//right at the end still gets its header, as the writer moves on to the next
+			//cover as soon as one is full. Covers past that are left alone.
+			coversUsed = 0;
+			for ( long start=0; coversUsed<imageList.size() && start<=totalFileSize; coversUsed++ ) {
+				start += imageList.get(coversUsed).getPixelCount() * 3 * (bitNumber + 1) - sizeOfImageMetadata;
+			}
+			
+			version = Cryptor.VERSION;
+			token = Cryptor.getToken(password, version);
+			
+			if (threadCount > 1) {
+				encodeParallel();
+			}
+			else {
+				//Begin encoding, filling one cover image at a time
+				//while the covers already filled are saved on another thread
+				final CoverSaver saver = new CoverSaver();
+				saver.start();
+				writer = new BitWriter(imageList, new CoverListener() {
+					public void coverStarted(int index) throws IOException {
+						listener.setLabel("Encoding " + (index + 1) + " of " + imageList.size() + ": " + imageList.get(index).getName());
+						coverStart = System.nanoTime();
+						embedEvent = new CoverEmbedEvent();
+						embedEvent.begin();
+						writeImageHeader(writer, index);
+					}
+					public void coverFinished(int index) throws IOException {
+						coverHidden(index, writer.getPosition(), coverStart, embedEvent);
+						saver.add(index);
+					}
+				});
+				writer.nextCover();
+				for ( currentFile=0; currentFile<fileList.size(); currentFile++ ) {
+					encodeFile();
+				}
+				writer.close();
+				saver.finish();
+			}
+			for (InsertableMessage message : fileList) metrics.add(Metrics.BYTES_ENCRYPTED, message.getSize());
+		}
+		finally {
+			//a run that stops part way leaves files open, which matters when the JVM carries on
+			for (InsertableMessage message : fileList) {
+				try {
+					message.close();
+				}
+				catch (IOException e) {
+					//it was only being read, so there is nothing to lose
+				}
+			}
+		}
+		
+		//covers the files didn't reach were never saved
+		ArrayList<File> written = new ArrayList<File>();
+		synchronized (saved) {
+			for ( int i=0; i<imageList.size(); i++ ) {
+				if (saved[i]) written.add(new File(outputDirectory, imageList.get(i).getName()));
+			}
+		}
+		return written;
+	}
+	
+	//Reads the files out of the covers and writes them out, returning where they were written.
+	
+	public List<File> decode(DecodeRequest request) throws Exception {
+		if (request.getCovers().size() < 1 || outputDirectory == null) {
+			throw new StegoException(StegoException.BAD_REQUEST, "To decode, you must select at least one image.");
+		}
+		loadCovers(request, false, 0, 0);
+		
+		listener.setLabel("Initializing...");
+		
+		//get the bit number and payload version, which are always at the lowest significant bit
+		reader = new BitReader(imageList, null);
+		reader.startCover(0, 1);
+		int field = reader.readInt();
+		bitNumber = field & 0xff;
+		version = field >>> 8;
+		
+		if (bitNumber > 7 || !Cryptor.isSupported(version)) {
+			throw new StegoException(StegoException.NOT_ENCODED, "This doesn't appear to be an encoded image.");
+		}
+		
+		//must artifically increase this count because
+		//the bitNumber was written at the lowest significant bit
+		reader.setBitsPerLayer(bitNumber + 1);
+		reader.seek(reader.getPosition() * 8);
+		
+		//get the token
+		token = reader.readLong();
+		
+		while (password == null || !Cryptor.checkToken(token, password, version)) {
+			password = listener.askPassword("Please try a new password.");
+			
+			if (password == null)
+				throw new StegoException(StegoException.WRONG_PASSWORD, "The password is incorrect.");
+			//using a blank string for decryption results in a divide by zero error,
+			//so we need to supply a default password for those who try it
+			else if (password.equals(""))
+				password = "analrape";
+		}
+		
+		//get the next three numbers stored
+		totalFileCount = reader.readInt();
+		totalFileSize = reader.readLong();
+		int coverCount = reader.readInt();
+		
+		//Give up before reading anything out if covers are missing (or there are too many),
+		//rather than running out of covers part way through a file. Version 0 counted every
+		//cover it was given, even the ones the files never reached and it never saved, so
+		//there fewer covers are all right as long as they hold all the files (see below).
+		if (version == Cryptor.LEGACY_VERSION ? coverCount < imageList.size() : coverCount != imageList.size()) {
+			throw new StegoException(StegoException.NOT_ENCODED, 
+					"You either are missing images or are trying to decode images that don't belong together.");
+		}
+		
+		listener.setMax(totalFileSize);
+		
+		int i;
+		
+		//get the order numbers of each image and store them in an arraylist
+		ArrayList<Integer> orderList = new ArrayList<Integer>();
+		for ( i=0; i<imageList.size(); i++ ) {
+			//must artificially set this count to be the last 32 bits
+			//of the metadata space because we're working on a new image each time
+			reader.startCover(i, bitNumber + 1);
+			reader.seek(sizeOfImageMetadata-32);
+			
+			int ordernum = reader.readInt();
+			
+			if (orderList.indexOf(Integer.valueOf(ordernum)) == -1) orderList.add(Integer.valueOf(ordernum));
+			else { //there's more than one cover image with the same order number
+				throw new StegoException(StegoException.NOT_ENCODED, "At least two of your images have the same order number.");
+			}
+		}
+		
+		//Give up if the order list isn't completely in line
+		for ( i=0; i<orderList.size(); i++ ) {
+			if (orderList.indexOf(Integer.valueOf(i)) == -1) {
+				throw new StegoException(StegoException.NOT_ENCODED, 
+						"You either are missing images or are trying to decode images that don't belong together.");
+			}
+		}
+		
+		//Covers missing from the end of a version 0 set only matter if the files reached them
+		if (coverCount > imageList.size()) {
+			long capacity = 0;
+			for (CoverImage cover : imageList) capacity += cover.getPixelCount() * 3 * (bitNumber + 1) - sizeOfImageMetadata;
+			if (capacity < totalFileSize) {
+				throw new StegoException(StegoException.NOT_ENCODED,
+						"You either are missing images or are trying to decode images that don't belong together.");
+			}
+		}
+		
+		//Begin decoding, one cover image at a time, in the correct order
+		ArrayList<CoverImage> orderedList = new ArrayList<CoverImage>();
+		for ( i=0; i<imageList.size(); i++ ) {
+			orderedList.add(imageList.get(orderList.indexOf(Integer.valueOf(i))));
+		}
+		final ArrayList<CoverImage> covers = orderedList;
+		reader = new BitReader(orderedList, new CoverListener() {
+			public void coverStarted(int index) throws IOException {
+				//skip over the header
+				coverStart = System.nanoTime();
+				extractEvent = new CoverExtractEvent();
+				extractEvent.begin();
+				reader.seek(sizeOfImageMetadata);
+			}
+			public void coverFinished(int index) {
+				coverRead(covers.get(index), index, reader.getPosition(), coverStart, extractEvent);
+			}
+		});
+		reader.startCover(0, bitNumber + 1);
+		coverStart = System.nanoTime();
+		extractEvent = new CoverExtractEvent();
+		extractEvent.begin();
+		reader.seek(sizeOfImageMetadata);
+		if (threadCount > 1) {
+			//read each cover in bands of rows on the pool
+			reader.setPool(pool);
+		}
+		for ( currentFile=0; currentFile<totalFileCount; currentFile++ ) {
+			decodeFile();
+		}
+		coverRead(orderedList.get(reader.getCoverIndex()), reader.getCoverIndex(), 
+				reader.getPosition(), coverStart, extractEvent);
+		return written;
+	}
+	
+	//First, we create the list of cover images, since we always need to do this.
+	//When decoding, only the rows holding the header are read for now, and the rest
+	//as the hidden files are read out (covers to delete are read in full straight away).
+	//When encoding, huge PNG covers are streamed through to the output a band at a time.
+	//With more than one thread the covers are read on the pool, but kept in the order given.
+	
+	private void loadCovers(StegoRequest request, boolean encode, long streamPixels, int level) throws Exception {
+		imageList = new ArrayList<CoverImage>();
+		ArrayList<FutureTask<CoverImage>> loading = new ArrayList<FutureTask<CoverImage>>();
+		for ( int i=0; i<request.getCovers().size(); i++ ) {
+			loading.add(loadCover(request.getCovers().get(i), request.shouldDeleteCover(i), encode, streamPixels, level));
+		}
+		for (FutureTask<CoverImage> task : loading) {
+			CoverImage tempCover;
+			try {
+				tempCover = task.get();
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof Error) throw (Error) e.getCause();
+				throw (Exception) e.getCause();
+			}
+			pixelCount = pixelCount + tempCover.getPixelCount();
+			imageList.add(tempCover);
+		}
+	}
+	
+	//Function for reading a cover image, on the pool if there is one.
+	//Covers to decode only have their header read for now (unless they are to be deleted),
+	//and covers to encode are streamed if they are PNGs with at least streamPixels pixels.
+	
+	private FutureTask<CoverImage> loadCover(final String path, final boolean shouldDelete, 
+			final boolean encode, final long streamPixels, final int level) {
+		FutureTask<CoverImage> task = new FutureTask<CoverImage>(new Callable<CoverImage>() {
+			public CoverImage call() throws Exception {
+				Metrics.Span span = metrics.start(Metrics.COVER_LOAD);
+				CoverImage cover;
+				if (!encode && !shouldDelete) cover = new CoverImage(path, sizeOfImageMetadata / 3);
+				else if (encode && CoverImage.canStream(path, streamPixels)) cover = new CoverImage(path, shouldDelete, outputDirectory);
+				else cover = new CoverImage(path, shouldDelete);
+				cover.setCompression(level, pool);
+				span.end();
+				return cover;
+			}
+		});
+		if (pool != null) pool.execute(task);
+		else task.run();
+		return task;
+	}
+	
+	//Function for encoding file(s) into image(s).
+	//First, four numbers are encoded in the beginning of the image:
+	//Bit number with the payload version above it (int), password checker (long), total file count (int), total file size (long), cover count (int) and cover order (int).
+	//Then, before each file, their size (long), namelength (int), and name is encoded
+	//Finally, the file itself is encoded.
+	
+	private void writeImageHeader(BitWriter writer, int index) throws IOException {
+		//set the bitnumber and payload version, always at the lowest significant bit
+		//(images from before there were versions are version 0, which is just the bitnumber)
+		writer.setBitsPerLayer(1);
+		writer.seek(0);
+		writer.writeInt(bitNumber | (version << 8));
+		
+		//must artifically increase this count because
+		//the bitNumber was written at the lowest significant bit
+		writer.setBitsPerLayer(bitNumber + 1);
+		writer.seek(writer.getPosition() * 8);
+		
+		//set the other four numbers
+		writer.writeLong(token);
+		writer.writeInt(fileList.size());
+		writer.writeLong(totalFileSize);
+		writer.writeInt(coversUsed);
+		writer.writeInt(index);
+	}
+	
+	private void saveImage(int index) throws IOException {
+		Metrics.Span span = metrics.start(Metrics.COVER_WRITE);
+		CoverImage image = imageList.get(index);
+		if (image.isStreamed()) image.finish(); //most of it has been written already
+		else image.save(new File(outputDirectory + "/" + image.getName()));
+		span.end();
+		synchronized (saved) {
+			saved[index] = true;
+		}
+	}
+	
+	//Records a cover that has been hidden in or read from, since start, in the metrics
+	//and in the Flight Recorder event begun at the same time.
+	
+	private void coverHidden(int index, long bits, long start, CoverEmbedEvent event) {
+		CoverImage cover = imageList.get(index);
+		metrics.addCover(index, cover.getName(), cover.getPixelCount(), bits, bitNumber + 1, System.nanoTime() - start);
+		event.end();
+		if (event.shouldCommit()) {
+			event.cover = cover.getName();
+			event.index = index;
+			event.pixels = cover.getPixelCount();
+			event.bits = bits;
+			event.bitsPerLayer = bitNumber + 1;
+			event.commit();
+		}
+	}
+	
+	private void coverRead(CoverImage cover, int index, long bits, long start, CoverExtractEvent event) {
+		metrics.addCover(index, cover.getName(), cover.getPixelCount(), bits, bitNumber + 1, System.nanoTime() - start);
+		event.end();
+		if (event.shouldCommit()) {
+			event.cover = cover.getName();
+			event.index = index;
+			event.pixels = cover.getPixelCount();
+			event.bits = bits;
+			event.bitsPerLayer = bitNumber + 1;
+			event.commit();
+		}
+	}
+	
+	private void encodeFile() throws Exception {
+		InsertableMessage message = fileList.get(currentFile);
+		byte[] name = message.getName();
+		
+		//Enter the header info and then the file itself
+		writer.writeLong(message.getSize());
+		writer.writeInt(name.length);
+		writer.write(name, 0, name.length);
+		
+		int count;
+		while (true) {
+			Metrics.Span span = metrics.start(Metrics.ENCRYPT);
+			count = message.read(buffer, 0, buffer.length);
+			span.end();
+			if (count == -1) break;
+			
+			span = metrics.start(Metrics.EMBED);
+			writer.writeMsbFirst(buffer, 0, count);
+			span.end();
+			listener.addValue(count * 8);
+		}
+	}
+	
+	//Function for encoding all the cover images at once.
+	//Every cover holds its header followed by pixels*3*(bitNumber+1) - sizeOfImageMetadata bits
+	//of the files, so where each cover's share of the files starts is known up front.
+	//The files are cut into one slice per cover, in order, and each slice is hidden
+	//and saved on the pool. Only as many slices as there are threads are kept in memory.
+	//Streamed covers are too big for a slice, so they are fed here a chunk at a time instead.
+	
+	private void encodeParallel() throws Exception {
+		for (InsertableMessage message : fileList) message.setPool(pool); //big files are encrypted a few chunks at a time
+		LinkedList<ForkJoinTask<Long>> running = new LinkedList<ForkJoinTask<Long>>();
+		PayloadStream payload = new PayloadStream(fileList);
+		long totalBits = PayloadStream.getBitCount(fileList);
+		long start = 0; //where the current cover's slice starts
+		byte carry = 0; //a byte shared with the previous slice
+		
+		//a cover whose slice starts right at the end still gets its header
+		for ( int i=0; i<imageList.size() && start<=totalBits; i++ ) {
+			long capacity = imageList.get(i).getPixelCount() * 3 * (bitNumber + 1) - sizeOfImageMetadata;
+			long bits = Math.min(capacity, totalBits - start);
+			int shift = (int) (start & 0x7);
+			
+			if (imageList.get(i).isStreamed()) {
+				listener.setLabel("Encoding " + (i + 1) + " of " + imageList.size() + ": " + imageList.get(i).getName());
+				carry = encodeStreamed(i, payload, shift, bits, carry);
+				listener.addValue(bits);
+				start += capacity;
+				continue;
+			}
+			
+			byte[] slice = new byte[(int) ((shift + bits + 7) >>> 3)];
+			int pos = 0;
+			if (shift != 0) slice[pos++] = carry;
+			Metrics.Span span = metrics.start(Metrics.ENCRYPT);
+			payload.readFully(slice, pos, slice.length - pos);
+			span.end();
+			if (slice.length > 0) carry = slice[slice.length - 1];
+			
+			if (running.size() == threadCount) finishTask(running.removeFirst());
+			listener.setLabel("Encoding " + (i + 1) + " of " + imageList.size() + ": " + imageList.get(i).getName());
+			running.add(pool.submit(new CoverTask(i, slice, shift, bits)));
+			
+			start += capacity;
+		}
+		while (!running.isEmpty()) finishTask(running.removeFirst());
+	}
+	
+	private void finishTask(ForkJoinTask<Long> task) throws Exception {
+		try {
+			listener.addValue(task.get().longValue());
+		}
+		catch (ExecutionException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+	
+	//Hides a streamed cover's share of the files and saves the cover. The share is read
+	//a chunk at a time, so only a chunk and the cover's band are ever in memory, and each
+	//chunk is hidden band by band on the pool. Returns the byte shared with the next cover.
+	
+	private byte encodeStreamed(int index, PayloadStream payload, int shift, long bits, byte carry) throws Exception {
+		long start = System.nanoTime();
+		CoverEmbedEvent event = new CoverEmbedEvent();
+		event.begin();
+		long total = sizeOfImageMetadata + bits;
+		BitWriter writer = new BitWriter(imageList.subList(index, index + 1), null);
+		writer.setPool(pool);
+		writer.startCover(0, 1);
+		writeImageHeader(writer, index);
+		
+		byte[] chunk = new byte[STREAM_CHUNK];
+		int pos = 0;
+		if (shift != 0) chunk[pos++] = carry;
+		while (bits > 0) {
+			int fill = (int) Math.min(chunk.length - pos, ((shift + bits + 7) >>> 3) - pos);
+			Metrics.Span span = metrics.start(Metrics.ENCRYPT);
+			payload.readFully(chunk, pos, fill);
+			span.end();
+			pos += fill;
+			long count = Math.min(bits, (long) pos * 8 - shift);
+			span = metrics.start(Metrics.EMBED);
+			writer.writeBits(chunk, shift, count);
+			span.end();
+			bits -= count;
+			carry = chunk[pos - 1];
+			pos = 0;
+			shift = 0;
+		}
+		writer.close();
+		coverHidden(index, total, start, event);
+		saveImage(index);
+		return carry;
+	}
+	
+	//Hides one cover's slice of the files and saves the cover.
+	
+	private class CoverTask implements Callable<Long> {
+		
+		public CoverTask(int index, byte[] slice, int shift, long bits) {
+			mIndex = index;
+			mSlice = slice;
+			mShift = shift;
+			mBits = bits;
+		}
+		
+		public Long call() throws Exception {
+			long start = System.nanoTime();
+			CoverEmbedEvent event = new CoverEmbedEvent();
+			event.begin();
+			Metrics.Span span = metrics.start(Metrics.EMBED);
+			BitWriter writer = new BitWriter(imageList.subList(mIndex, mIndex + 1), null);
+			writer.setPool(pool); //a big cover is also split into bands of rows
+			writer.startCover(0, 1);
+			writeImageHeader(writer, mIndex);
+			writer.writeBits(mSlice, mShift, mBits);
+			writer.close();
+			span.end();
+			coverHidden(mIndex, sizeOfImageMetadata + mBits, start, event);
+			saveImage(mIndex);
+			return Long.valueOf(mBits);
+		}
+		
+		private int mIndex;
+		private byte[] mSlice;
+		private int mShift;
+		private long mBits;
+	}
+	
+	//Saves covers on its own thread, in the order they are filled, so the next cover can be
+	//filled in the meantime. Only SAVE_QUEUE filled covers can be waiting at once; after that,
+	//adding another waits for a save to finish. Once a save fails, the rest are skipped and
+	//the failure is thrown from the next add or from finish.
+	
+	private class CoverSaver extends Thread {
+		
+		public CoverSaver() {
+			super("FireSteg saver");
+			setDaemon(true); //never keeps FireSteg running if encoding fails
+		}
+		
+		public void run() {
+			try {
+				int index;
+				while ((index = mQueue.take().intValue()) != -1) {
+					if (mFailure != null) continue;
+					try {
+						listener.setLabel("Saving " + (index + 1) + " of " + imageList.size() + ": " + imageList.get(index).getName());
+						saveImage(index);
+					}
+					catch (Throwable e) {
+						mFailure = e;
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				mFailure = e;
+			}
+		}
+		
+		public void add(int index) throws IOException {
+			checkFailure();
+			put(index);
+		}
+		
+		public void finish() throws IOException {
+			put(-1);
+			try {
+				join();
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while saving");
+			}
+			checkFailure();
+		}
+		
+		private void put(int index) throws IOException {
+			try {
+				mQueue.put(Integer.valueOf(index));
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while saving");
+			}
+		}
+		
+		private void checkFailure() throws IOException {
+			Throwable e = mFailure;
+			if (e == null) return;
+			if (e instanceof IOException) throw (IOException) e;
+			if (e instanceof RuntimeException) throw (RuntimeException) e;
+			if (e instanceof Error) throw (Error) e;
+			throw new IOException("Could not save a cover", e);
+		}
+		
+		private ArrayBlockingQueue<Integer> mQueue = new ArrayBlockingQueue<Integer>(SAVE_QUEUE);
+		private volatile Throwable mFailure;
+	}
+
+	private void decodeFile() throws Exception {
+		//get the header info
+		Metrics.Span span = metrics.start(Metrics.EXTRACT);
+		long size = reader.readLong();
+		byte[] fileName = new byte[reader.readInt()];
+		reader.read(fileName, 0, fileName.length);
+		span.end();
+		
+		span = metrics.start(Metrics.DECRYPT);
+		RetrievedMessage rmess = new RetrievedMessage(outputDirectory, fileName, password, version);
+		span.end();
+		try {
+			rmess.setPool(pool);
+			fileName = rmess.getName(); //if the name is encrypted, this will decrypt it
+			listener.setLabel("Decoding " + (currentFile + 1) + " of " + totalFileCount + ": " + new String(fileName));
+			
+			//start retrieving and writing out the message
+			while (size > 0) {
+				int count = (int) Math.min(size, buffer.length);
+				span = metrics.start(Metrics.EXTRACT);
+				reader.readMsbFirst(buffer, 0, count);
+				span.end();
+				span = metrics.start(Metrics.DECRYPT);
+				rmess.write(buffer, 0, count);
+				span.end();
+				metrics.add(Metrics.BYTES_DECRYPTED, count);
+				size -= count;
+				listener.addValue(count * 8);
+			}
+			
+			span = metrics.start(Metrics.DECRYPT);
+			rmess.close();
+			span.end();
+			written.add(new File(rmess.getPath()));
+		}
+		finally {
+			//a file that couldn't be finished is removed, leaving any file it would have replaced
+			rmess.discard();
+		}
+	}
+	
+	/* Variables used exclusively during encoding */
+	
+	private ArrayList<InsertableMessage> fileList; //holds all the files you want to hide
+	private long pixelCount = 0; //keeps track of the total number of pixels in all cover images
+	private int coversUsed; //how many of the covers the files reach, which are the ones saved
+	private boolean[] saved; //which covers have been saved, by the thread that saved them
+	private static final long STREAM_PIXELS = 1L << 26; //covers this big are streamed when encoding
+	private static final int STREAM_CHUNK = 4 * 1024 * 1024; //how much of the files is hidden in a streamed cover at once
+	private BitWriter writer; //hides everything in the cover images, in order
+	private static final int SAVE_QUEUE = 2; //how many filled covers can wait to be saved
+	
+	/* Variables used exclusively during decoding */
+	
+	private BitReader reader; //reads everything back out of the cover images, in order
+	private int totalFileCount = 0;
+	private ArrayList<File> written = new ArrayList<File>(); //the files read out so far
+	
+	/* Variables used during both encoding and decoding */
+	
+	private String outputDirectory; //directory the covers or retrieved files will be saved in
+	private ArrayList<CoverImage> imageList; //holds all the cover images
+	private int sizeOfImageMetadata = StegoEngine.HEADER_BITS; //8 ints for bitnumber, 2 longs and 3 ints for the five other numbers
+	private int sizeOfFileMetadata = 64 + 32; //includes only file size and name length, not the name itself
+	private int currentFile = 0; //the file currently being hidden or extracted
+	private String password;
+	private long token; //password checker
+	private int bitNumber = 0;
+	private int version; //how the files are encrypted, from Cryptor
+	private long totalFileSize = 0; //keeps track of the cumulative size of all the files you're hiding
+	private int threadCount; //how many threads to encode/decode with
+	private ForkJoinPool pool; //the threads, if there is more than one
+	private ProgressListener listener; //told how the run is going
+	private Metrics metrics; //where the time goes
+	private long coverStart; //when work on the current cover started
+	private CoverEmbedEvent embedEvent; //the Flight Recorder event for the cover being hidden in
+	private CoverExtractEvent extractEvent; //the Flight Recorder event for the cover being read from
+	private byte[] buffer = new byte[64 * 1024]; //chunk of a file being hidden or extracted
+}
+//end of class.
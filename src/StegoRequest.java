@@ -0,0 +1,129 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.stego;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import invisibleinktoolkit.util.Metrics;
+
+/**
+ * What a StegoEngine is asked to do, and how.
+ * <P>
+ * A request is read when the run starts and not kept, so it can be
+ * changed and used again afterwards.  A request should only be used
+ * by one thread at a time.
+ */
+public abstract class StegoRequest{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new request.
+	 *
+	 * @param outputDirectory Where to write what comes out.
+	 * @param password The password the files are encrypted with.
+	 */
+	protected StegoRequest(String outputDirectory, String password){
+		mOutputDirectory = outputDirectory;
+		mPassword = password;
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Adds a cover image.  Covers are used in the order they are added.
+	 *
+	 * @param path The path of the image.
+	 * @param shouldDelete Whether to delete the image once it has been read.
+	 */
+	public void addCover(String path, boolean shouldDelete){
+		mCovers.add(path);
+		mDeleteCovers.add(Boolean.valueOf(shouldDelete));
+	}
+	
+	public List<String> getCovers(){
+		return mCovers;
+	}
+	
+	public boolean shouldDeleteCover(int index){
+		return mDeleteCovers.get(index).booleanValue();
+	}
+	
+	public String getOutputDirectory(){
+		return mOutputDirectory;
+	}
+	
+	public void setOutputDirectory(String outputDirectory){
+		mOutputDirectory = outputDirectory;
+	}
+	
+	public String getPassword(){
+		return mPassword;
+	}
+	
+	public void setPassword(String password){
+		mPassword = password;
+	}
+	
+	/**
+	 * Sets how many threads to do the run with.  More than one
+	 * uses the engine's pool of that many threads.
+	 *
+	 * @param threads The number of threads, 1 by default.
+	 */
+	public void setThreads(int threads){
+		mThreads = Math.max(1, threads);
+	}
+	
+	public int getThreads(){
+		return mThreads;
+	}
+	
+	/**
+	 * Sets where to record the time the run takes and how much it
+	 * does.
+	 *
+	 * @param metrics Where to record it, or null not to.
+	 */
+	public void setMetrics(Metrics metrics){
+		mMetrics = metrics;
+	}
+	
+	public Metrics getMetrics(){
+		return mMetrics;
+	}
+	
+	
+	//VARIABLES
+	
+	private ArrayList<String> mCovers = new ArrayList<String>();
+	private ArrayList<Boolean> mDeleteCovers = new ArrayList<Boolean>();
+	private String mOutputDirectory;
+	private String mPassword;
+	private int mThreads = 1;
+	private Metrics mMetrics;
+}
+//end of class.
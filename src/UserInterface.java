@@ -0,0 +1,84 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package invisibleinktoolkit.util;
+
+/**
+ * How FireSteg tells the user what it is doing.
+ * <P>
+ * A run shows its progress through one of these, reports what went
+ * wrong through it, and asks through it for a new password when the
+ * one given is wrong.  The window shown on a desktop is one; the
+ * console used by --headless runs is another, so scripted runs never
+ * need a display.
+ */
+public interface UserInterface{
+	
+	/**
+	 * Shows the progress to the user.
+	 */
+	public void show();
+	
+	/**
+	 * Stops showing the progress.
+	 */
+	public void hide();
+	
+	/**
+	 * Says what is being worked on.
+	 *
+	 * @param label What is being worked on.
+	 */
+	public void setLabel(String label);
+	
+	/**
+	 * Sets the total the progress counts up to.
+	 *
+	 * @param number The total.
+	 */
+	public void setMax(long number);
+	
+	/**
+	 * Adds to the progress made.
+	 *
+	 * @param number How much more has been done.
+	 */
+	public void addValue(long number);
+	
+	/**
+	 * Tells the user why the run is giving up.
+	 *
+	 * @param message What went wrong.
+	 */
+	public void showError(String message);
+	
+	/**
+	 * Asks the user for a new password after a wrong one.
+	 *
+	 * @param message Why a new password is needed.
+	 * @return The new password, or null if there is none to be had.
+	 */
+	public String askPassword(String message);
+	
+}
+//end of interface.
@@ -28,6 +28,8 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.JPasswordField;
 import javax.swing.border.LineBorder;
 
 import java.awt.BorderLayout;
@@ -37,13 +39,18 @@ import java.awt.Frame;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import invisibleinktoolkit.util.UserInterface;
+
 
 /**
  * A non-blocking window to state "Working, please wait".
+ * <P>
+ * Errors and requests for a new password are shown in dialogs
+ * of their own.
  *
  * @author Kathryn Hempstalk.
  */
-public class WorkingPanel{
+public class WorkingPanel implements UserInterface{
 	
 	//VARIABLES
 	
@@ -70,6 +77,12 @@ public class WorkingPanel{
 	 */
 	private JProgressBar mMovingThing;
 	
+	/**
+	 * The progress so far, and how much of it makes one step of
+	 * the progress bar.
+	 */
+	private long mValue, mScale = 1;
+	
 		
 	//CONSTRUCTORS	
 	
@@ -134,12 +147,46 @@ public class WorkingPanel{
 		mLabel.setText(labelName);
 	}
 	
-	public void setMax(int number){
-		mMovingThing.setMaximum(number);
+	/**
+	 * Sets the total the progress counts up to.  Totals too big
+	 * for the progress bar are scaled down to fit.
+	 *
+	 * @param number The total.
+	 */
+	public void setMax(long number){
+		mScale = number / Integer.MAX_VALUE + 1;
+		mValue = 0;
+		mMovingThing.setMaximum((int)(number / mScale));
 	}
 	
-	public void addValue(int number){
-		mMovingThing.setValue(mMovingThing.getValue() + number);
+	public void addValue(long number){
+		mValue += number;
+		mMovingThing.setValue((int)(mValue / mScale));
+	}
+	
+	public void showError(String message){
+		JOptionPane.showMessageDialog(null, 
+									  message,
+									  "Error!",
+									  JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Asks for a new password in a dialog.
+	 *
+	 * @param message Why a new password is needed.
+	 * @return The new password, or null if the dialog was cancelled.
+	 */
+	public String askPassword(String message){
+		JLabel label = new JLabel(message);
+		JPasswordField jpf = new JPasswordField();
+		int result = JOptionPane.showConfirmDialog(null,
+			new Object[]{label, jpf}, "Password incorrect!",
+			JOptionPane.OK_CANCEL_OPTION);
+		
+		if (result == JOptionPane.CANCEL_OPTION || result == JOptionPane.CLOSED_OPTION)
+			return null;
+		return new String(jpf.getPassword());
 	}
 	
 }
@@ -0,0 +1,190 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import invisibleinktoolkit.stego.BitReader;
+import invisibleinktoolkit.stego.BitWriter;
+import invisibleinktoolkit.stego.CoverImage;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that hiding bits straight into the raster behind a cover,
+ * on one thread or in bands of rows on several, changes exactly the
+ * same pixels in exactly the same way as the getRGB/setRGB path the
+ * covers used to take.
+ * <P>
+ * Each case prints a line saying whether it passed, and the run
+ * exits with 1 if any failed.
+ * <P>
+ * Usage, once the app is built into classes:
+ * <PRE>
+ *   javac -d test-classes -cp classes test/*.java
+ *   java -cp classes:test-classes CoverImageTest
+ * </PRE>
+ */
+public class CoverImageTest{
+	
+	//FUNCTIONS
+	
+	public static void main(String[] args) throws Exception{
+		CoverImageTest test = new CoverImageTest();
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try{
+			for(int type : TYPES){
+				for(int bits : new int[]{1, 2, 3}){
+					test.matchesReference(type, bits, null);
+					test.matchesReference(type, bits, pool);
+				}
+			}
+		}finally{
+			pool.shutdown();
+		}
+		System.out.println(test.mFailures + " of " + test.mCases + " failed.");
+		System.exit(test.mFailures == 0 ? 0 : 1);
+	}
+	
+	/**
+	 * Hides a few odd bits and then a long run, starting part way
+	 * into a pixel, through a BitWriter, and hides the same bits one
+	 * at a time with getRGB and setRGB on a copy of the cover.  The
+	 * two images have to match pixel for pixel, and the bits have to
+	 * read back.
+	 * <P>
+	 * With a pool, the long run is more than RowBands.BAND_BITS, so
+	 * it is split into bands.
+	 */
+	private void matchesReference(int type, int bits, ForkJoinPool pool) throws Exception{
+		String name = NAMES[Arrays.binarySearch(TYPES, type)] + ", " + bits + " bits, "
+			+ (pool == null ? "one thread" : "banded");
+		BufferedImage image = noise(type, bits);
+		BufferedImage reference = copy(image);
+		
+		//most of the cover, leaving the last row alone
+		long capacity = (long)SIZE * SIZE * 3 * bits;
+		long count = capacity - SIZE * 3 * bits - HEAD_BITS - SKIP;
+		byte[] data = new byte[(int)((count + SKIP + 7) / 8)];
+		new Random(type * 10 + bits).nextBytes(data);
+		
+		CoverImage cover = new CoverImage(image, "cover.png");
+		BitWriter writer = new BitWriter(Collections.singletonList(cover), null);
+		writer.setPool(pool);
+		writer.startCover(0, bits);
+		writer.writeBits(HEAD, HEAD_BITS);
+		writer.writeBits(data, SKIP, count);
+		writer.close();
+		
+		long position = 0;
+		for(int i = 0; i < HEAD_BITS; i++)
+			setReferenceBit(reference, bits, position++, (int)(HEAD >>> i) & 0x1);
+		for(long i = 0; i < count; i++)
+			setReferenceBit(reference, bits, position++, (data[(int)((SKIP + i) >>> 3)] >> ((SKIP + i) & 0x7)) & 0x1);
+		
+		boolean same = cover.getImage() == image && image.getType() == type;
+		for(int y = 0; y < SIZE && same; y++)
+			for(int x = 0; x < SIZE && same; x++)
+				same = image.getRGB(x, y) == reference.getRGB(x, y);
+		this.check(name, same);
+		
+		BitReader reader = new BitReader(Collections.singletonList(cover), null);
+		reader.setPool(pool);
+		reader.startCover(0, bits);
+		boolean read = reader.readBits(HEAD_BITS) == HEAD;
+		for(long i = 0; i < count && read; i++)
+			read = reader.readBits(1) == ((data[(int)((SKIP + i) >>> 3)] >> ((SKIP + i) & 0x7)) & 0x1);
+		this.check(name + ", read back", read);
+	}
+	
+	/**
+	 * Hides one bit the way covers did before they reached into the
+	 * raster: pixel by pixel along the rows, the low bits of each
+	 * layer in turn, through getRGB and setRGB.
+	 */
+	private static void setReferenceBit(BufferedImage image, int bits, long position, int bit){
+		long pixel = position / (bits * 3);
+		int rangeupto = (int)(position - pixel * bits * 3);
+		int x = (int)(pixel % SIZE);
+		int y = (int)(pixel / SIZE);
+		int shift = (rangeupto / bits) * 8 + rangeupto % bits;
+		int rgb = image.getRGB(x, y);
+		image.setRGB(x, y, (bit == 1) ? rgb | (1 << shift) : rgb & ~(1 << shift));
+	}
+	
+	private void check(String name, boolean passed){
+		mCases++;
+		if(!passed)
+			mFailures++;
+		System.out.println((passed ? "ok    " : "FAIL  ") + name);
+	}
+	
+	/**
+	 * Makes a cover of random pixels, with random alpha where the
+	 * type has it.
+	 */
+	private static BufferedImage noise(int type, int seed){
+		BufferedImage image = new BufferedImage(SIZE, SIZE, type);
+		Random random = new Random(seed);
+		for(int y = 0; y < SIZE; y++)
+			for(int x = 0; x < SIZE; x++)
+				image.setRGB(x, y, random.nextInt());
+		return image;
+	}
+	
+	private static BufferedImage copy(BufferedImage image){
+		BufferedImage copy = new BufferedImage(SIZE, SIZE, image.getType());
+		for(int y = 0; y < SIZE; y++)
+			for(int x = 0; x < SIZE; x++)
+				copy.setRGB(x, y, image.getRGB(x, y));
+		return copy;
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The layouts covers reach into directly, in order.
+	 */
+	private static final int[] TYPES = {BufferedImage.TYPE_INT_RGB,
+		BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR};
+	private static final String[] NAMES = {"INT_RGB", "3BYTE_BGR", "4BYTE_ABGR"};
+	
+	/**
+	 * The width and height of each cover.  Even at one bit a layer
+	 * it holds more than RowBands.BAND_BITS.
+	 */
+	private static final int SIZE = 700;
+	
+	/**
+	 * Odd bits hidden before the long run, so it starts part way
+	 * into a pixel, and the bit of the data it starts from.
+	 */
+	private static final long HEAD = 0x1a5bL;
+	private static final int HEAD_BITS = 13;
+	private static final int SKIP = 3;
+	
+	private int mCases;
+	private int mFailures;
+}
+//end of class.
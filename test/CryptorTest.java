@@ -0,0 +1,237 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import my.crypto.Cryptor;
+import my.crypto.MessageCipher;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.AEADBadTagException;
+
+/**
+ * Checks the version 1 payload format: that messages of awkward
+ * sizes come back as they went in, and that a message that has
+ * been tampered with, cut short, had its chunks moved around or is
+ * opened with the wrong password is refused rather than written
+ * out as garbage.
+ * <P>
+ * Each case prints a line saying whether it passed, and the run
+ * exits with 1 if any failed.
+ * <P>
+ * Usage, once the app is built into classes:
+ * <PRE>
+ *   javac -d test-classes -cp classes test/*.java
+ *   java -cp classes:test-classes CryptorTest
+ * </PRE>
+ */
+public class CryptorTest{
+	
+	//FUNCTIONS
+	
+	public static void main(String[] args) throws Exception{
+		CryptorTest test = new CryptorTest();
+		for(int size : new int[]{0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK + 100})
+			test.roundTrip(size);
+		test.legacyToCurrent();
+		test.runSalt();
+		test.tamperedTag();
+		test.truncated();
+		test.reordered();
+		test.wrongPassword();
+		System.out.println(test.mFailures + " of " + test.mCases + " failed.");
+		System.exit(test.mFailures == 0 ? 0 : 1);
+	}
+	
+	/**
+	 * A message comes back as it went in, and is the size
+	 * getEncryptedSize says, however it lines up with the chunks.
+	 */
+	private void roundTrip(int size) throws Exception{
+		byte[] data = random(size);
+		byte[] sealed = Cryptor.encrypt(data, PASSWORD, Cryptor.GCM_VERSION);
+		this.check("round trip, " + size + " bytes",
+				sealed.length == Cryptor.getEncryptedSize(size, Cryptor.GCM_VERSION)
+				&& Arrays.equals(Cryptor.decrypt(sealed, PASSWORD, Cryptor.GCM_VERSION), data));
+	}
+	
+	/**
+	 * What was hidden with version 0 comes back, and hides again
+	 * with version 1.
+	 */
+	private void legacyToCurrent() throws Exception{
+		byte[] data = random(CHUNK + 7);
+		byte[] legacy = Cryptor.encrypt(data, PASSWORD, Cryptor.LEGACY_VERSION);
+		byte[] plain = Cryptor.decrypt(legacy, PASSWORD, Cryptor.LEGACY_VERSION);
+		byte[] sealed = Cryptor.encrypt(plain, PASSWORD, Cryptor.GCM_VERSION);
+		this.check("version 0 to version 1",
+				legacy.length == Cryptor.getEncryptedSize(data.length, Cryptor.LEGACY_VERSION)
+				&& Arrays.equals(Cryptor.decrypt(sealed, PASSWORD, Cryptor.GCM_VERSION), data));
+	}
+	
+	/**
+	 * Messages keyed from the salt of one run share the salt, but
+	 * each has a nonce prefix of its own.
+	 */
+	private void runSalt() throws Exception{
+		byte[] salt = Cryptor.newSalt(Cryptor.GCM_VERSION);
+		byte[] data = random(100);
+		byte[] a = Cryptor.encrypt(data, PASSWORD, salt, Cryptor.GCM_VERSION);
+		byte[] b = Cryptor.encrypt(data, PASSWORD, salt, Cryptor.GCM_VERSION);
+		this.check("one salt a run, a nonce a message",
+				Arrays.equals(Arrays.copyOf(a, SALT), salt) && Arrays.equals(Arrays.copyOf(b, SALT), salt)
+				&& !Arrays.equals(Arrays.copyOfRange(a, SALT, HEADER), Arrays.copyOfRange(b, SALT, HEADER))
+				&& Arrays.equals(Cryptor.decrypt(b, PASSWORD, Cryptor.GCM_VERSION), data));
+	}
+	
+	/**
+	 * Changing a tag, or the middle chunk of a long message opened
+	 * on a pool, gives a bad tag rather than some other exception.
+	 */
+	private void tamperedTag() throws Exception{
+		byte[] sealed = Cryptor.encrypt(random(100), PASSWORD, Cryptor.GCM_VERSION);
+		sealed[sealed.length - 1] ^= 1;
+		this.expectBadTag("tampered tag", sealed, null);
+		
+		sealed = Cryptor.encrypt(random(20 * CHUNK), PASSWORD, Cryptor.GCM_VERSION);
+		sealed[HEADER + 10 * (CHUNK + TAG) + 5] ^= 1;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			this.expectBadTag("tampered middle chunk", sealed, null);
+			this.expectBadTag("tampered middle chunk, on a pool", sealed, pool);
+			
+			//and from a task already running in the pool, which joins in instead
+			final byte[] in = sealed;
+			final ForkJoinPool inner = pool;
+			Exception thrown = pool.submit(new Callable<Exception>(){
+				public Exception call(){
+					try{
+						decrypt(in, PASSWORD, inner);
+						return null;
+					}catch(Exception e){
+						return e;
+					}
+				}
+			}).get();
+			this.check("tampered middle chunk, in the pool: " + thrown,
+					thrown instanceof AEADBadTagException);
+		}finally{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Cutting a message off where a chunk ends leaves a message
+	 * whose last chunk is not marked as the last.
+	 */
+	private void truncated() throws Exception{
+		byte[] sealed = Cryptor.encrypt(random(3 * CHUNK + 100), PASSWORD, Cryptor.GCM_VERSION);
+		this.expectBadTag("cut after two chunks", Arrays.copyOf(sealed, HEADER + 2 * (CHUNK + TAG)), null);
+		
+		sealed = Cryptor.encrypt(random(CHUNK + 1), PASSWORD, Cryptor.GCM_VERSION);
+		this.expectBadTag("cut after a full first chunk", Arrays.copyOf(sealed, HEADER + CHUNK + TAG), null);
+	}
+	
+	/**
+	 * Swapping two chunks gives each the wrong number.
+	 */
+	private void reordered() throws Exception{
+		byte[] sealed = Cryptor.encrypt(random(3 * CHUNK + 100), PASSWORD, Cryptor.GCM_VERSION);
+		byte[] first = Arrays.copyOfRange(sealed, HEADER, HEADER + CHUNK + TAG);
+		System.arraycopy(sealed, HEADER + CHUNK + TAG, sealed, HEADER, CHUNK + TAG);
+		System.arraycopy(first, 0, sealed, HEADER + CHUNK + TAG, CHUNK + TAG);
+		this.expectBadTag("first two chunks swapped", sealed, null);
+	}
+	
+	private void wrongPassword() throws Exception{
+		byte[] sealed = Cryptor.encrypt(random(100), PASSWORD, Cryptor.GCM_VERSION);
+		try{
+			decrypt(sealed, PASSWORD + "!", null);
+			this.check("wrong password", false);
+		}catch(AEADBadTagException e){
+			this.check("wrong password", true);
+		}
+	}
+	
+	private void expectBadTag(String name, byte[] sealed, ForkJoinPool pool) throws Exception{
+		try{
+			decrypt(sealed, PASSWORD, pool);
+			this.check(name, false);
+		}catch(Exception e){
+			this.check(name + ": " + e, e instanceof AEADBadTagException);
+		}
+	}
+	
+	/**
+	 * Opens a message, on a pool if there is one, handing it to the
+	 * cipher in pieces the way a message is read out of a cover.
+	 */
+	private static byte[] decrypt(byte[] sealed, String password, ForkJoinPool pool) throws Exception{
+		MessageCipher cipher = Cryptor.getDecryptor(password, Cryptor.GCM_VERSION);
+		cipher.setPool(pool);
+		byte[] out = new byte[cipher.getOutputSize(sealed.length)];
+		int count = 0;
+		for(int off = 0; off < sealed.length; off += PIECE){
+			int len = Math.min(PIECE, sealed.length - off);
+			count += cipher.update(sealed, off, len, out, count);
+		}
+		count += cipher.doFinal(out, count);
+		return Arrays.copyOf(out, count);
+	}
+	
+	private static byte[] random(int size){
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+	
+	private void check(String name, boolean passed){
+		mCases++;
+		if(!passed)
+			mFailures++;
+		System.out.println((passed ? "ok    " : "FAIL  ") + name);
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The layout of a version 1 message: the salt and nonce prefix,
+	 * then chunks of CHUNK bytes that each end in a tag.
+	 */
+	private static final int SALT = 16;
+	private static final int HEADER = SALT + 8;
+	private static final int CHUNK = 64 * 1024;
+	private static final int TAG = 16;
+	
+	/**
+	 * How much of a message is handed to the cipher at a time.
+	 */
+	private static final int PIECE = 10000;
+	
+	private static final String PASSWORD = "test password";
+	
+	private int mCases;
+	private int mFailures;
+}
+//end of class.
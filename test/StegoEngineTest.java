@@ -0,0 +1,474 @@
+/*
+ *    FireSteg
+ *    Copyright (C) 2009  Zachary Oakes
+ *
+ *	  Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import invisibleinktoolkit.stego.DecodeRequest;
+import invisibleinktoolkit.stego.EncodeRequest;
+import invisibleinktoolkit.stego.StegoEngine;
+import invisibleinktoolkit.stego.StegoException;
+import my.crypto.Cryptor;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Checks hiding and extracting through StegoEngine on covers made
+ * up on the spot, concentrating on what happens when the covers
+ * given to extract from are not the whole set.
+ * <P>
+ * Each case prints a line saying whether it passed, and the run
+ * exits with 1 if any failed.
+ * <P>
+ * Usage, from the top of the repository once the app is built into
+ * classes:
+ * <PRE>
+ *   javac -d test-classes -cp classes test/*.java
+ *   java -cp classes:test-classes StegoEngineTest
+ * </PRE>
+ */
+public class StegoEngineTest{
+	
+	//FUNCTIONS
+	
+	public static void main(String[] args) throws Exception{
+		File dir = Files.createTempDirectory("firesteg-test").toFile();
+		StegoEngineTest test = new StegoEngineTest(dir);
+		try{
+			for(int threads : new int[]{1, 3}){
+				test.missingLastCover(threads);
+				test.missingMiddleCover(threads);
+				test.fullFirstCover(threads);
+				test.unusedCovers(threads);
+				test.legacyUnsavedCovers(threads);
+			}
+			test.missingCoverExitCode();
+			test.legacyExitCode();
+			for(int threads : new int[]{1, 3})
+				test.derivationsPerRun(threads);
+			test.parallelMatchesSequential(false);
+			test.parallelMatchesSequential(true);
+			test.tooManyThreads();
+		}finally{
+			test.mEngine.shutdown();
+			delete(dir);
+		}
+		System.out.println(test.mFailures + " of " + test.mCases + " failed.");
+		System.exit(test.mFailures == 0 ? 0 : 1);
+	}
+	
+	private StegoEngineTest(File dir){
+		mDir = dir;
+	}
+	
+	/**
+	 * Leaving off the last cover of a set is caught before anything
+	 * is written, and a file already there is left alone.
+	 */
+	private void missingLastCover(int threads) throws Exception{
+		File[] covers = this.encode("last" + threads, threads, 3, 80000);
+		File out = this.newDir("last" + threads + "-out");
+		File earlier = this.write(new File(out, "secret.bin"), "an earlier file".getBytes());
+		this.expectNotEncoded("missing last cover, " + threads + " threads",
+				this.decodeRequest(out, covers[0], covers[1]), threads);
+		this.check("earlier file kept, " + threads + " threads",
+				Arrays.equals(Files.readAllBytes(earlier.toPath()), "an earlier file".getBytes())
+				&& out.list().length == 1);
+	}
+	
+	/**
+	 * Leaving off a cover from the middle of a set is caught too.
+	 */
+	private void missingMiddleCover(int threads) throws Exception{
+		File[] covers = this.encode("middle" + threads, threads, 3, 80000);
+		File out = this.newDir("middle" + threads + "-out");
+		this.expectNotEncoded("missing middle cover, " + threads + " threads",
+				this.decodeRequest(out, covers[0], covers[2]), threads);
+		this.check("nothing written, " + threads + " threads", out.list().length == 0);
+	}
+	
+	/**
+	 * Files that fill the first cover exactly still reach the second,
+	 * which holds just its header, so both are needed and both work.
+	 */
+	private void fullFirstCover(int threads) throws Exception{
+		//the encrypted name and file, and the size and name length in front of them
+		long capacity = (long) COVER_SIZE * COVER_SIZE * 3 - StegoEngine.HEADER_BITS;
+		long name = Cryptor.getEncryptedSize(NAME.length(), Cryptor.VERSION);
+		long size = capacity / 8 - 12 - name - (Cryptor.getEncryptedSize(0, Cryptor.VERSION));
+		File[] covers = this.encode("full" + threads, threads, 2, (int) size);
+		
+		File out = this.newDir("full" + threads + "-out");
+		DecodeRequest request = this.decodeRequest(out, covers[0], covers[1]);
+		request.setThreads(threads);
+		mEngine.decode(request, null);
+		this.check("first cover full, " + threads + " threads",
+				Arrays.equals(Files.readAllBytes(new File(out, NAME).toPath()), mPayload));
+		this.expectNotEncoded("first cover full, second missing, " + threads + " threads",
+				this.decodeRequest(this.newDir("full" + threads + "-part"), covers[0]), threads);
+	}
+	
+	/**
+	 * Covers the files don't reach are not saved, and only the covers
+	 * that were are returned.
+	 */
+	private void unusedCovers(int threads) throws Exception{
+		File[] covers = this.encode("unused" + threads, threads, 3, 100);
+		this.check("only saved covers returned, " + threads + " threads",
+				mWritten.size() == 1 && mWritten.get(0).equals(covers[0]) && covers[0].isFile()
+				&& !covers[1].exists() && !covers[2].exists());
+	}
+	
+	/**
+	 * Version 0 wrote the number of covers it was given into the
+	 * header, but only saved the ones the files reached.  Such a set
+	 * still extracts, while leaving off a cover the files did reach
+	 * is still caught.
+	 * <P>
+	 * The covers under test/fixtures were hidden in by FireSteg as it
+	 * was before payload versions, with the password "password":
+	 * v0-one-of-two was given two covers but only reached the first,
+	 * and v0-two-of-two reached both.
+	 */
+	private void legacyUnsavedCovers(int threads) throws Exception{
+		File out = this.newDir("legacy" + threads + "-one");
+		DecodeRequest request = this.decodeRequest(out, LEGACY_PASSWORD, fixture("v0-one-of-two", "a.png"));
+		request.setThreads(threads);
+		mEngine.decode(request, null);
+		this.check("version 0, unsaved cover left off, " + threads + " threads",
+				sameFile(new File(out, "secret.txt"), fixture("v0-one-of-two", "secret.txt")));
+		
+		out = this.newDir("legacy" + threads + "-two");
+		request = this.decodeRequest(out, LEGACY_PASSWORD, fixture("v0-two-of-two", "a.png"), 
+				fixture("v0-two-of-two", "b.png"));
+		request.setThreads(threads);
+		mEngine.decode(request, null);
+		this.check("version 0, both covers, " + threads + " threads",
+				sameFile(new File(out, "secret.bin"), fixture("v0-two-of-two", "secret.bin")));
+		
+		out = this.newDir("legacy" + threads + "-part");
+		this.expectNotEncoded("version 0, used cover missing, " + threads + " threads",
+				this.decodeRequest(out, LEGACY_PASSWORD, fixture("v0-two-of-two", "a.png")), threads);
+		this.check("nothing written, version 0, " + threads + " threads", out.list().length == 0);
+	}
+	
+	/**
+	 * The command line extracts from the version 0 set missing its
+	 * unsaved cover, exiting with 0.
+	 */
+	private void legacyExitCode() throws Exception{
+		File out = this.newDir("legacy-exit");
+		int code = FireSteg.execute(new String[]{"--headless", "-p", LEGACY_PASSWORD,
+				"-c", fixture("v0-one-of-two", "a.png").getPath(), "-o", out.getPath()},
+				mDir, System.out, System.err);
+		this.check("version 0, unsaved cover left off, exit code", code == 0 
+				&& sameFile(new File(out, "secret.txt"), fixture("v0-one-of-two", "secret.txt")));
+	}
+	
+	/**
+	 * The command line exits with 4 for a missing cover, as the
+	 * README says.
+	 */
+	private void missingCoverExitCode() throws Exception{
+		File[] covers = this.encode("exit", 1, 3, 80000);
+		File out = this.newDir("exit-out");
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int code = FireSteg.execute(new String[]{"--headless", "-p", PASSWORD,
+				"-c", covers[0].getPath(), "-c", covers[1].getPath(), "-o", out.getPath()},
+				mDir, System.out, new PrintStream(err));
+		this.check("missing cover exit code", code == 4);
+	}
+	
+	/**
+	 * However many files a run hides, it derives one key for them
+	 * all, plus the password token the first time the password is
+	 * used; extracting them again derives nothing new.
+	 */
+	private void derivationsPerRun(int threads) throws Exception{
+		String password = PASSWORD + " " + threads;
+		File in = this.newDir("keys" + threads + "-in");
+		File out = this.newDir("keys" + threads + "-enc");
+		File cover = new File(in, "cover.png");
+		ImageIO.write(noise(threads), "png", cover);
+		
+		int[] counts = new int[3];
+		for(int run = 0; run < 2; run++){
+			EncodeRequest request = new EncodeRequest(out.getPath(), password);
+			for(int i = 0; i < FILE_COUNT; i++)
+				request.addFile(this.write(new File(in, "file" + i), ("file " + i).getBytes()).getPath(), false);
+			request.addCover(cover.getPath(), false);
+			request.setThreads(threads);
+			long before = Cryptor.getDerivationCount();
+			mEngine.encode(request, null);
+			counts[run] = (int)(Cryptor.getDerivationCount() - before);
+		}
+		
+		DecodeRequest request = this.decodeRequest(this.newDir("keys" + threads + "-out"), password, new File(out, "cover.png"));
+		request.setThreads(threads);
+		long before = Cryptor.getDerivationCount();
+		mEngine.decode(request, null);
+		counts[2] = (int)(Cryptor.getDerivationCount() - before);
+		
+		this.check("one key per run for " + FILE_COUNT + " files, " + threads + " threads: "
+				+ Arrays.toString(counts), counts[0] == 2 && counts[1] == 1 && counts[2] == 0);
+	}
+	
+	/**
+	 * Hiding the same files at once on several threads gives covers
+	 * that are the same pixel for pixel as hiding them on one.  The
+	 * first cover is big enough for its share to be hidden in bands,
+	 * and the biggest file is encrypted in chunks on the pool.
+	 */
+	private void parallelMatchesSequential(boolean stream) throws Exception{
+		String name = stream ? "streamed" : "in memory";
+		File in = this.newDir("parallel-" + stream + "-in");
+		byte[] big = new byte[200000];
+		new Random(5).nextBytes(big);
+		List<String> files = Arrays.asList(this.write(new File(in, "big.bin"), big).getPath(),
+				this.write(new File(in, "a.txt"), "a".getBytes()).getPath(),
+				this.write(new File(in, "b.txt"), "b".getBytes()).getPath());
+		int[] sizes = {700, COVER_SIZE, COVER_SIZE};
+		String[] covers = new String[sizes.length];
+		for(int i = 0; i < sizes.length; i++){
+			covers[i] = new File(in, "cover" + i + ".png").getPath();
+			ImageIO.write(noise(i, sizes[i]), "png", new File(covers[i]));
+		}
+		
+		//a seed of its own for each way of hiding, so no thread's cipher
+		//is ever asked to seal with the key and nonce it last sealed with
+		int seed = stream ? 8 : 7;
+		List<List<File>> written = new ArrayList<List<File>>();
+		Object random = swapRandom(new Random(seed));
+		try{
+			for(int threads : new int[]{1, 3}){
+				swapRandom(new Random(seed));
+				EncodeRequest request = new EncodeRequest(this.newDir("parallel-" + stream + "-" + threads).getPath(), PASSWORD);
+				for(String file : files)
+					request.addFile(file, false);
+				for(String cover : covers)
+					request.addCover(cover, false);
+				request.setStream(stream);
+				request.setThreads(threads);
+				written.add(mEngine.encode(request, null));
+			}
+		}finally{
+			swapRandom(random);
+		}
+		
+		boolean same = written.get(0).size() == written.get(1).size() && written.get(0).size() > 1;
+		for(int i = 0; same && i < written.get(0).size(); i++)
+			same = samePixels(ImageIO.read(written.get(0).get(i)), ImageIO.read(written.get(1).get(i)));
+		this.check("3 threads same as 1, " + name, same);
+	}
+	
+	/**
+	 * A run asking for far more threads than the engine allows still
+	 * works, on no more threads than the engine allows, however many
+	 * different numbers runs ask for.
+	 */
+	private void tooManyThreads() throws Exception{
+		for(int threads : new int[]{16, 64, 1000}){
+			File[] covers = this.encode("many" + threads, threads, 3, 80000);
+			File out = this.newDir("many" + threads + "-out");
+			DecodeRequest request = this.decodeRequest(out, covers);
+			request.setThreads(threads + 1);
+			mEngine.decode(request, null);
+			this.check("asked for " + threads + " threads",
+					Arrays.equals(Files.readAllBytes(new File(out, NAME).toPath()), mPayload));
+		}
+		
+		int workers = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread.getName().startsWith("ForkJoinPool-"))
+				workers++;
+		this.check("at most " + MAX_THREADS + " threads: " + workers, workers <= MAX_THREADS);
+	}
+	
+	/**
+	 * Hides a file of random bytes in a set of random covers, and
+	 * returns where each cover is saved if the files reach it.  The
+	 * covers the engine says it saved are kept in mWritten.
+	 */
+	private File[] encode(String name, int threads, int coverCount, int size) throws Exception{
+		File in = this.newDir(name + "-in");
+		File out = this.newDir(name + "-enc");
+		mPayload = new byte[size];
+		new Random(size).nextBytes(mPayload);
+		
+		EncodeRequest request = new EncodeRequest(out.getPath(), PASSWORD);
+		request.addFile(this.write(new File(in, NAME), mPayload).getPath(), false);
+		File[] covers = new File[coverCount];
+		for(int i = 0; i < coverCount; i++){
+			File cover = new File(in, "cover" + i + ".png");
+			ImageIO.write(noise(i), "png", cover);
+			request.addCover(cover.getPath(), false);
+			covers[i] = new File(out, cover.getName());
+		}
+		request.setThreads(threads);
+		mWritten = mEngine.encode(request, null);
+		return covers;
+	}
+	
+	private DecodeRequest decodeRequest(File out, File... covers){
+		return this.decodeRequest(out, PASSWORD, covers);
+	}
+	
+	private DecodeRequest decodeRequest(File out, String password, File... covers){
+		DecodeRequest request = new DecodeRequest(out.getPath(), password);
+		for(File cover : covers)
+			request.addCover(cover.getPath(), false);
+		return request;
+	}
+	
+	private static File fixture(String set, String name){
+		return new File(new File(FIXTURES, set), name).getAbsoluteFile();
+	}
+	
+	private static boolean sameFile(File a, File b) throws IOException{
+		return a.isFile() && Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+	}
+	
+	private void expectNotEncoded(String name, DecodeRequest request, int threads) throws Exception{
+		request.setThreads(threads);
+		try{
+			mEngine.decode(request, null);
+			this.check(name, false);
+		}catch(StegoException e){
+			this.check(name, e.getReason() == StegoException.NOT_ENCODED);
+		}catch(IOException e){
+			this.check(name + ": " + e.getMessage(), false);
+		}
+	}
+	
+	private void check(String name, boolean passed){
+		mCases++;
+		if(!passed)
+			mFailures++;
+		System.out.println((passed ? "ok    " : "FAIL  ") + name);
+	}
+	
+	private File newDir(String name){
+		File dir = new File(mDir, name);
+		dir.mkdirs();
+		return dir;
+	}
+	
+	private File write(File file, byte[] data) throws IOException{
+		FileOutputStream out = new FileOutputStream(file);
+		try{
+			out.write(data);
+		}finally{
+			out.close();
+		}
+		return file;
+	}
+	
+	private static BufferedImage noise(int seed){
+		return noise(seed, COVER_SIZE);
+	}
+	
+	private static BufferedImage noise(int seed, int size){
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(seed);
+		for(int y = 0; y < size; y++)
+			for(int x = 0; x < size; x++)
+				image.setRGB(x, y, random.nextInt());
+		return image;
+	}
+	
+	private static boolean samePixels(BufferedImage a, BufferedImage b){
+		int width = a.getWidth(), height = a.getHeight();
+		return width == b.getWidth() && height == b.getHeight()
+			&& Arrays.equals(a.getRGB(0, 0, width, height, null, 0, width),
+					b.getRGB(0, 0, width, height, null, 0, width));
+	}
+	
+	/**
+	 * Swaps the random source Cryptor takes salts and nonces from,
+	 * so that two runs given the same seeded source encrypt alike.
+	 * Only tests do this.
+	 *
+	 * @return The source it had before.
+	 */
+	private static Object swapRandom(Object random) throws Exception{
+		Field field = Cryptor.class.getDeclaredField("random");
+		field.setAccessible(true);
+		Object old = field.get(null);
+		field.set(null, random);
+		return old;
+	}
+	
+	private static void delete(File file){
+		File[] files = file.listFiles();
+		if(files != null)
+			for(File f : files)
+				delete(f);
+		file.delete();
+	}
+	
+	
+	//VARIABLES
+	
+	/**
+	 * The width and height of each cover.
+	 */
+	private static final int COVER_SIZE = 200;
+	
+	private static final String PASSWORD = "test password";
+	private static final String NAME = "secret.bin";
+	
+	/**
+	 * Covers hidden in by older versions, and the password they were
+	 * hidden with.
+	 */
+	private static final File FIXTURES = new File("test", "fixtures");
+	private static final String LEGACY_PASSWORD = "password";
+	
+	/**
+	 * The number of files hidden in one run when counting keys.
+	 */
+	private static final int FILE_COUNT = 30;
+	
+	/**
+	 * The most threads the engine runs on.  It is set rather than
+	 * left to the number of processors so the runs on three threads
+	 * use the pool even on a machine with one.
+	 */
+	private static final int MAX_THREADS = 3;
+	
+	private StegoEngine mEngine = new StegoEngine(MAX_THREADS);
+	private File mDir;
+	private byte[] mPayload;
+	private List<File> mWritten;
+	private int mCases;
+	private int mFailures;
+}
+//end of class.